@@ -2,16 +2,31 @@ package ru.asb;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.DatasetView;
 import ru.asb.dataset.DatasetWorker;
 import ru.asb.dataset.Group;
+import ru.asb.dataset.LastUsedIndex;
+import ru.asb.dataset.TopReport;
+import ru.asb.dataset.collectors.Collector;
+import ru.asb.dataset.collectors.ColumnarDatasetCollector;
 import ru.asb.dataset.collectors.DatasetMapCollector;
+import ru.asb.dataset.collectors.OrphanCollector;
+import ru.asb.dataset.collectors.ParallelDatasetCollector;
+import ru.asb.dataset.executors.BatchScriptExecutor;
 import ru.asb.dataset.executors.LocalRemover;
+import ru.asb.dataset.executors.ManifestExecutor;
+import ru.asb.dataset.executors.RemoteExecutor;
+import ru.asb.dataset.filters.Filter;
+import ru.asb.dataset.filters.FilterResult;
+import ru.asb.dataset.parsers.ListingTimestamp;
 import ru.asb.dataset.updaters.LocalUpdater;
+import ru.asb.dataset.updaters.Updater;
 import ru.asb.dataset.updaters.ServerUpdater;
 import ru.asb.dataset.executors.Executor;
 import ru.asb.dataset.executors.ScriptExecutor;
 import ru.asb.dataset.executors.ScriptFileExecutor;
+import ru.asb.ssh.SshSessionPool;
 import ru.asb.ssh.SshWorker;
 import ru.asb.script.Script;
 import ru.asb.util.Unit;
@@ -20,6 +35,7 @@ import ru.asb.util.Util;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 
@@ -27,14 +43,29 @@ public class FlowController implements Runnable {
     private static final Logger log = LogManager.getLogger(FlowController.class);
     private final SshWorker sourceSession = new SshWorker(10L);
     private FlowType flowType = FlowType.REMOTE;
+    private SshSessionPool sessionPool = null;
 
     private boolean lookForOrphans = false;
     private boolean lookForFull = false;
     private boolean writeCsv = false;
     private boolean writeScript = false;
+    private boolean scriptGzip = false;
+    private int scriptBatchBytes = 0;
+    private String scriptManifestDir = null;
+    private boolean streamListings = false;
+    private boolean columnarStore = false;
+    private boolean orphanJoin = false;
+    private boolean filterParallel = false;
+    private boolean listingSnapshots = false;
+    private boolean deltaListings = false;
+    private boolean compressedTransfer = false;
     private int dsValidityPeriod = 0;
+    private int reclaimableMaxDays = -1;
+    private int topCount = 0;
     private int dsFilesUpdateDelay = 0;
     private int scriptExecutorThreadsCount = 1;
+    private int collectorThreadsCount = 1;
+    private long collectorHeapBudgetMb = 0;
 
     private List<String> exceptions = null;
     private List<String> filterList = null;
@@ -56,27 +87,57 @@ public class FlowController implements Runnable {
     }
 
     public void removeDatasets() {
-        List<Dataset> dsResultList;
+        List<DatasetView> dsResultList;
+        FilterResult dsResult;
         List<Group> dsGroupResultList;
         try {
             DatasetWorker dsWorker;
             switch (flowType) {
-                case LOCAL: dsWorker = new DatasetWorker(dsLocalDir, new DatasetMapCollector(), new LocalUpdater(dsFilesUpdateDelay)); break;
-                case REMOTE: dsWorker = new DatasetWorker(dsLocalDir, new DatasetMapCollector(), new ServerUpdater(sourceSession, dsFilesUpdateDelay)); break;
+                case LOCAL: dsWorker = new DatasetWorker(dsLocalDir, createCollector(), new LocalUpdater(dsFilesUpdateDelay)); break;
+                case REMOTE: dsWorker = new DatasetWorker(dsLocalDir, createCollector(), createServerUpdater()); break;
                 default: throw new IllegalArgumentException();
             }
 
-            //Обновление дата-сетов
-            Collection<Path> dsDescriptorFiles = dsWorker.getUpdatedDatasetsFiles(descriptorDirs.toArray(new String[0]));
-            Collection<Path> dsDataFiles = dsWorker.getUpdatedDatasetsFiles(dataDirs.toArray(new String[0]));
-
-            //Сбор дата-сетов
-            dsWorker.collectDatasets(dsDescriptorFiles,true);
-            dsWorker.collectDatasets(dsDataFiles, false);
-            log.info("Common datasets count: {} | {} Gb", dsWorker.getDatasets().size(), String.format("%6.3f", Util.getDsListSize(dsWorker.getDatasets(), Unit.GIGABYTE)));
+            if (streamListings) {
+                //Обновление и сбор дата-сетов во время получения листингов
+                dsWorker.updateAndCollectDatasets(true, descriptorDirs.toArray(new String[0]));
+                dsWorker.updateAndCollectDatasets(false, dataDirs.toArray(new String[0]));
+            } else {
+                //Обновление дата-сетов
+                Collection<Path> dsDescriptorFiles = dsWorker.getUpdatedDatasetsFiles(descriptorDirs.toArray(new String[0]));
+                Collection<Path> dsDataFiles = dsWorker.getUpdatedDatasetsFiles(dataDirs.toArray(new String[0]));
+
+                //Сбор дата-сетов
+                dsWorker.collectDatasets(dsDescriptorFiles, true);
+                dsWorker.collectDatasets(dsDataFiles, false);
+            }
+            DatasetStatistics statistics = dsWorker.getStatistics();
+            log.info("Common datasets count: {} | {} Gb", statistics.getCount(), String.format("%6.3f", Util.size(statistics.getTotalSize(), Unit.GIGABYTE)));
+            log.info("Orphans count: {}", statistics.getOrphansCount());
+            for (Map.Entry<String, Long> folderSize : statistics.getFolderSizes().entrySet())
+                log.debug("Folder {}: {} Gb", folderSize.getKey(), String.format("%6.3f", Util.size(folderSize.getValue(), Unit.GIGABYTE)));
 
             //Фильтрация дата-сетов
-            dsResultList = dsWorker.filter().notIn(exceptions).onlyIn(filterList).orphans(lookForOrphans).full(lookForFull).matched(regex).expired(dsValidityPeriod).getList();
+            if (topCount > 0) {
+                //Быстрый отчет: K самых больших дата-сетов и групп, полный список не строится, дата-сеты не удаляются
+                TopReport topReport = dsWorker.filter().parallel(filterParallel).notIn(exceptions).onlyIn(filterList).orphans(lookForOrphans).full(lookForFull).matched(regex).expired(dsValidityPeriod)
+                        .collect(() -> new TopReport(topCount), TopReport::add, TopReport::combine);
+                writeTopReport(topReport);
+                log.info("Top report finished. Datasets are not removed");
+                return;
+            }
+            if (reclaimableMaxDays >= 0) {
+                //Отчет: индекс по дате использования для всех сроков хранения, дата-сеты не удаляются
+                List<DatasetView> candidates = dsWorker.filter().parallel(filterParallel).notIn(exceptions).onlyIn(filterList).orphans(lookForOrphans).full(lookForFull).matched(regex).getList();
+                LastUsedIndex lastUsedIndex = LastUsedIndex.build(candidates);
+                writeReclaimableReport(lastUsedIndex);
+                dsResult = new Filter(lastUsedIndex).expired(dsValidityPeriod).getResult();
+            } else {
+                dsResult = dsWorker.filter().parallel(filterParallel).notIn(exceptions).onlyIn(filterList).orphans(lookForOrphans).full(lookForFull).matched(regex).expired(dsValidityPeriod).getResult();
+            }
+            dsResultList = dsResult.getList();
+            for (Map.Entry<String, Long> folderSize : dsResult.getFolderSizes().entrySet())
+                log.debug("Filtered in folder {}: {} Gb", folderSize.getKey(), String.format("%6.3f", Util.size(folderSize.getValue(), Unit.GIGABYTE)));
 
 
             Path scriptFile = null;
@@ -88,7 +149,7 @@ public class FlowController implements Runnable {
                 if (Files.notExists(scriptDir)) {
                     Files.createDirectories(scriptDir);
                 }
-                scriptFile = new Script(dsResultList, scriptPrefix, scriptPostfix).writeBash(scriptDir.resolve(String.format("rm_%s.sh", Util.getScriptName(dsWorker.getUpdatedDatasetsFiles(descriptorDirs.toArray(new String[0]))).toLowerCase())));
+                scriptFile = new Script(dsResultList, scriptPrefix, scriptPostfix).gzip(scriptGzip).writeBash(scriptDir.resolve(String.format("rm_%s.sh", Util.getScriptName(dsWorker.getUpdatedDatasetsFiles(descriptorDirs.toArray(new String[0]))).toLowerCase())));
             }
 
             if (writeCsv) {
@@ -96,13 +157,18 @@ public class FlowController implements Runnable {
                     Util.writeCSV(resultDir.resolve("datasets.csv"), dsResultList.get(0).getCsvHeader(), dsResultList);
                 else
                     log.info("DS list is empty.");
-                dsGroupResultList = dsWorker.collectGroups(dsResultList);
+                dsGroupResultList = dsWorker.collectGroups(dsResultList, filterParallel);
                 if (dsGroupResultList.size() > 0)
                     Util.writeCSV(resultDir.resolve("groups.csv"), dsGroupResultList.get(0).getCsvHeader(), dsGroupResultList);
                 else
                     log.info("Groups list is empty.");
             }
 
+            if (reclaimableMaxDays >= 0) {
+                log.info("Reclaimable space report finished. Datasets are not removed");
+                return;
+            }
+
             switch (flowType) {
                 case LOCAL:
                     Executor executor = new LocalRemover(dsResultList);
@@ -113,8 +179,17 @@ public class FlowController implements Runnable {
                         executor = new ScriptFileExecutor(sourceSession, scriptFile);
                     } else {
                         Script script = new Script(dsResultList, scriptPrefix, scriptPostfix).inline();
-                        executor = new ScriptExecutor(sourceSession, script);
+                        if (scriptManifestDir != null && !script.isRemove())
+                            log.warn("Manifest mode is used only for rm commands, script prefix: {}", scriptPrefix);
+                        if (scriptManifestDir != null && script.isRemove())
+                            executor = new ManifestExecutor(sourceSession, script, scriptManifestDir);
+                        else if (scriptBatchBytes > 0)
+                            executor = new BatchScriptExecutor(sourceSession, script, scriptBatchBytes);
+                        else
+                            executor = new ScriptExecutor(sourceSession, script);
                     }
+                    if (executor instanceof RemoteExecutor)
+                        ((RemoteExecutor) executor).setSessionPool(sessionPool);
                     executor.setThreadsNum(scriptExecutorThreadsCount);
                     executor.run(); //В текущей реализации нет необходимости запускать в отдельном потоке
                     break;
@@ -122,7 +197,7 @@ public class FlowController implements Runnable {
             }
 
 
-            log.info("Processed datasets size: {}", String.format("%-8.3f Gb", Util.size(size(dsResultList), Unit.GIGABYTE)));
+            log.info("Processed datasets size: {}", String.format("%-8.3f Gb", Util.size(dsResult.getTotalSize(), Unit.GIGABYTE)));
 
             log.info("Datasets executor finished");
         } catch (InterruptedException ie) {
@@ -131,10 +206,82 @@ public class FlowController implements Runnable {
             log.error("Error: {} {}",ioe.getMessage(), Arrays.toString(ioe.getStackTrace()));
             ioe.printStackTrace();
         } finally {
+            if (sessionPool != null) sessionPool.close();
             if (sourceSession.sessionIsOpen()) sourceSession.closeSession();
         }
     }
 
+    /**
+     * Коллектор сирот, если ищутся только сироты и он включен; колоночное хранилище, если оно включено; иначе коллектор с внешней сортировкой, если листинги не помещаются в бюджет памяти;
+     * иначе однопоточный коллектор, если задан один поток, или параллельный.
+     * */
+    private Collector createCollector() throws IOException {
+        Collector collector;
+        if (lookForOrphans && orphanJoin)
+            collector = new OrphanCollector();
+        else if (columnarStore)
+            collector = new ColumnarDatasetCollector();
+        else
+            collector = Collector.forHeapBudget(collectorHeapBudgetMb * 1024L * 1024L, localListingFiles(), () -> {
+                if (collectorThreadsCount == 1)
+                    return new DatasetMapCollector();
+                return new ParallelDatasetCollector(collectorThreadsCount);
+            });
+        log.info("Datasets collector: {}", collector.getClass().getSimpleName());
+        collector.setSnapshots(listingSnapshots);
+        return collector;
+    }
+
+    /**
+     * Локальные листинги папок дескрипторов и данных (полученные при прошлом запуске)
+     * */
+    private List<Path> localListingFiles() {
+        List<Path> listingFiles = new ArrayList<>();
+        Set<String> dirs = new LinkedHashSet<>(descriptorDirs);
+        dirs.addAll(dataDirs);
+        for (String dir : dirs) {
+            if (dir != null && !dir.isEmpty())
+                listingFiles.add(Updater.getDsFile(Paths.get(dsLocalDir), dir));
+        }
+        return listingFiles;
+    }
+
+    /**
+     * Кривая освобождаемого места: количество и объем просроченных дата-сетов для сроков хранения от 0 до reclaimableMaxDays
+     * */
+    private void writeReclaimableReport(LastUsedIndex lastUsedIndex) throws IOException {
+        List<LastUsedIndex.Reclaimable> curve = lastUsedIndex.reclaimable(reclaimableMaxDays, ListingTimestamp.now());
+        for (LastUsedIndex.Reclaimable point : curve)
+            log.info("Validity period {} day(s): {} datasets | {} Gb", point.getDays(), point.getCount(), String.format("%6.3f", Util.size(point.getSize(), Unit.GIGABYTE)));
+        Util.writeCSV(resultDir.resolve("reclaimable.csv"), curve.get(0).getCsvHeader(), curve);
+    }
+
+    /**
+     * K самых больших дата-сетов и групп; последняя строка - количество и размер остальных
+     * */
+    private void writeTopReport(TopReport topReport) throws IOException {
+        List<DatasetView> topDatasets = topReport.getTopDatasets();
+        List<Group> topGroups = topReport.getTopGroups();
+        log.info("Top {} datasets: {} Gb, everything else: {} datasets | {} Gb", topDatasets.size(), String.format("%6.3f", Util.size(topReport.getDatasets().getTotalSize() - topReport.getDatasets().getRestSize(), Unit.GIGABYTE)),
+                topReport.getDatasets().getRestCount(), String.format("%6.3f", Util.size(topReport.getDatasets().getRestSize(), Unit.GIGABYTE)));
+        log.info("Top {} groups of {}, everything else: {} groups | {} Gb", topGroups.size(), topReport.getGroups().getCount(),
+                topReport.getGroups().getRestCount(), String.format("%6.3f", Util.size(topReport.getGroups().getRestSize(), Unit.GIGABYTE)));
+        if (topDatasets.isEmpty()) {
+            log.info("DS list is empty.");
+            return;
+        }
+        Util.writeCSV(resultDir.resolve("top_datasets.csv"), topDatasets.get(0).getCsvHeader(), topDatasets, topReport.getDatasetsRestCsvRow());
+        Util.writeCSV(resultDir.resolve("top_groups.csv"), topGroups.get(0).getCsvHeader(), topGroups, topReport.getGroupsRestCsvRow());
+    }
+
+    private ServerUpdater createServerUpdater() {
+        ServerUpdater serverUpdater = new ServerUpdater(sourceSession, dsFilesUpdateDelay);
+        serverUpdater.setDeltaListings(deltaListings);
+        serverUpdater.setCompressedTransfer(compressedTransfer);
+        serverUpdater.setSessionPool(sessionPool);
+        return serverUpdater;
+    }
+
     private String[] presetDirs(String[] dirs) {
         for (int i = 0; i < dirs.length; i++) {
             if (dirs[i] != null) {
@@ -150,17 +297,6 @@ public class FlowController implements Runnable {
         return dirs;
     }
 
-    /**
-     * Возвращает размер всего списка.
-     * */
-    private long size(List<Dataset> datasetList) {
-        long _size = 0L;
-        for (Dataset dataset : datasetList) {
-            _size += dataset.size();
-        }
-        return _size;
-    }
-
     public void setDescriptorDirs(String[] descriptorDirs) {
         if (descriptorDirs.length > 0) {
             this.descriptorDirs = new HashSet<>(Arrays.asList(presetDirs(descriptorDirs)));
@@ -199,6 +335,65 @@ public class FlowController implements Runnable {
         this.writeScript = writeScript;
     }
 
+    /**
+     * Пул сессий к серверу для команд листинга и удаления; при одной сессии используется общая сессия sourceSession
+     * */
+    public void setSessionPool(int sessionsCount, int channelsPerSession) {
+        this.sessionPool = sessionsCount > 1 ? new SshSessionPool(sourceSession, sessionsCount, channelsPerSession) : null;
+    }
+
+    public void setScriptManifestDir(String scriptManifestDir) {
+        this.scriptManifestDir = scriptManifestDir == null || scriptManifestDir.isEmpty() ? null : scriptManifestDir;
+    }
+
+    public void setScriptBatchBytes(int scriptBatchBytes) {
+        this.scriptBatchBytes = scriptBatchBytes;
+    }
+
+    public void setScriptGzip(boolean scriptGzip) {
+        this.scriptGzip = scriptGzip;
+    }
+
+    public void setStreamListings(boolean streamListings) {
+        this.streamListings = streamListings;
+    }
+
+    public void setCompressedTransfer(boolean compressedTransfer) {
+        this.compressedTransfer = compressedTransfer;
+    }
+
+    public void setDeltaListings(boolean deltaListings) {
+        this.deltaListings = deltaListings;
+    }
+
+    public void setListingSnapshots(boolean listingSnapshots) {
+        this.listingSnapshots = listingSnapshots;
+    }
+
+    public void setColumnarStore(boolean columnarStore) {
+        this.columnarStore = columnarStore;
+    }
+
+    public void setFilterParallel(boolean filterParallel) {
+        this.filterParallel = filterParallel;
+    }
+
+    public void setReclaimableMaxDays(int reclaimableMaxDays) {
+        this.reclaimableMaxDays = reclaimableMaxDays;
+    }
+
+    public void setTopCount(int topCount) {
+        this.topCount = topCount;
+    }
+
+    public void setOrphanJoin(boolean orphanJoin) {
+        this.orphanJoin = orphanJoin;
+    }
+
+    public void setCollectorHeapBudgetMb(long collectorHeapBudgetMb) {
+        this.collectorHeapBudgetMb = collectorHeapBudgetMb;
+    }
+
     public void setLookForOrphans(boolean lookForOrphans) {
         if (lookForOrphans)
             this.lookForFull = false;
@@ -251,6 +446,10 @@ public class FlowController implements Runnable {
         this.scriptExecutorThreadsCount = scriptExecutorThreadsCount;
     }
 
+    public void setCollectorThreadsCount(int collectorThreadsCount) {
+        this.collectorThreadsCount = collectorThreadsCount;
+    }
+
     public FlowType getFlowType() {
         return flowType;
     }
@@ -267,7 +466,29 @@ public class FlowController implements Runnable {
         message.append("descriptor directories: ").append(String.join(", ", descriptorDirs)).append("\n");
         message.append("Use data directories: ").append(String.join(", ", dataDirs)).append("\n");
         message.append("Load datasets info to local directory: ").append(dsLocalDir).append("\n");
+        if (streamListings)
+            message.append("Collect datasets while loading datasets info\n");
+        if (lookForOrphans && orphanJoin)
+            message.append("Collect only orphans by descriptor names\n");
+        else if (columnarStore)
+            message.append("Collect datasets to columnar store\n");
+        else if (collectorHeapBudgetMb > 0)
+            message.append("Spill datasets to disk over heap budget: ").append(collectorHeapBudgetMb).append(" Mb\n");
+        if (listingSnapshots)
+            message.append("Use datasets info snapshots\n");
+        if (deltaListings && flowType == FlowType.REMOTE)
+            message.append("Update datasets info by changes since last scan\n");
+        if (sourceSession.isShellPipeline() && flowType == FlowType.REMOTE)
+            message.append("Execute commands through long-lived shell channels\n");
+        if (sessionPool != null && flowType == FlowType.REMOTE)
+            message.append("Use SSH sessions pool: ").append(sessionPool).append("\n");
+        if (compressedTransfer && flowType == FlowType.REMOTE)
+            message.append("Transfer datasets info compressed\n");
         message.append("Finding datasets that older ").append(dsValidityPeriod).append(" days\n");
+        if (reclaimableMaxDays >= 0)
+            message.append("Report reclaimable space for validity periods 0..").append(reclaimableMaxDays).append(" days (without removing)\n");
+        if (topCount > 0)
+            message.append("Report top ").append(topCount).append(" largest datasets and groups (without removing)\n");
         if (lookForOrphans)
             message.append("Looking for orphans datasets (without descriptor)\n");
         if (lookForFull)
@@ -281,9 +502,13 @@ public class FlowController implements Runnable {
         if (writeCsv)
             message.append("Write csv\n");
         if (writeScript)
-            message.append("Write script file\n");
+            message.append("Write script file").append(scriptGzip ? " (gzip)" : "").append("\n");
         if (flowType == FlowType.REMOTE && flowType.isExecute())
             message.append("Execute script\n");
+        if (flowType == FlowType.REMOTE && flowType.isExecute() && !flowType.isFromFile() && scriptManifestDir != null)
+            message.append("Remove by paths manifest in server directory: ").append(scriptManifestDir).append("\n");
+        else if (flowType == FlowType.REMOTE && flowType.isExecute() && !flowType.isFromFile() && scriptBatchBytes > 0)
+            message.append("Batch commands up to ").append(scriptBatchBytes).append(" bytes\n");
         if (flowType == FlowType.REMOTE && flowType.isExecute() && flowType.isFromFile())
             message.append("Execute script file\n");
         if (flowType == FlowType.LOCAL && flowType.isExecute())
@@ -69,6 +69,8 @@ public class Main {
      * --write-csv="optional parameter" - write datasets info to csv file with optional file name, if optional file name is not determined, use default file name.
      * --write-script="optional parameter" - write remove script file with optional file name, if optional file name is not determined, use default file name.
      * --validity-period="N days" - validity period.
+     * --reclaimable="N days" - report count and size of expired datasets for every validity period from 0 to N days (reclaimable.csv), datasets are not removed.
+     * --top="K" - quick-look report: K largest expired datasets and groups plus "everything else" totals (top_datasets.csv, top_groups.csv), datasets are not removed.
      * --orphans - look for orphans.
      * --full - look for full datasets.
      * --ignore-exceptions - ignore exception list
@@ -166,6 +168,20 @@ public class Main {
                 continue;
             }
 
+            //Get reclaimable space report max validity period
+            matcher = Pattern.compile("--reclaimable=(.*)", Pattern.CASE_INSENSITIVE).matcher(arg);
+            if (matcher.find()) {
+                flowController.setReclaimableMaxDays(Integer.parseInt(matcher.group(1).trim()));
+                continue;
+            }
+
+            //Get top-K report size
+            matcher = Pattern.compile("--top=(.*)", Pattern.CASE_INSENSITIVE).matcher(arg);
+            if (matcher.find()) {
+                flowController.setTopCount(Integer.parseInt(matcher.group(1).trim()));
+                continue;
+            }
+
             //Get use filter flag
             matcher = Pattern.compile("--use-filter", Pattern.CASE_INSENSITIVE).matcher(arg);
             if (matcher.find()) {
@@ -252,14 +268,28 @@ public class Main {
 
         flowController.setScriptPrefix(systemProperties.getProperty("script.prefix").trim());
         flowController.setScriptPostfix(systemProperties.getProperty("script.postfix").trim());
+        flowController.getSourceSession().setShellPipeline(Boolean.parseBoolean(systemProperties.getProperty("ssh.shell.pipeline", "false").trim()));
+        flowController.setSessionPool(Integer.parseInt(systemProperties.getProperty("ssh.pool.sessions", "1").trim()), Integer.parseInt(systemProperties.getProperty("ssh.pool.channels", "8").trim()));
+        flowController.setScriptManifestDir(systemProperties.getProperty("script.manifest.dir", "").trim());
+        flowController.setScriptBatchBytes(Integer.parseInt(systemProperties.getProperty("script.batch.bytes", "0").trim()));
+        flowController.setScriptGzip(Boolean.parseBoolean(systemProperties.getProperty("script.gzip", "false").trim()));
 
         flowController.setResultDir(Paths.get(systemProperties.getProperty("dir.result")));
 
         flowController.setExceptions(Arrays.asList(systemProperties.getProperty("ds.exception.list").split("\\s*[;,]\\s*")));
 
         flowController.setScriptExecutorThreadsCount(Integer.parseInt(systemProperties.getProperty("threads.count")));
+        flowController.setCollectorThreadsCount(Integer.parseInt(systemProperties.getProperty("threads.collector.count", "1").trim()));
+        flowController.setColumnarStore(Boolean.parseBoolean(systemProperties.getProperty("ds.collector.columnar", "false").trim()));
+        flowController.setFilterParallel(Boolean.parseBoolean(systemProperties.getProperty("ds.filter.parallel", "false").trim()));
+        flowController.setOrphanJoin(Boolean.parseBoolean(systemProperties.getProperty("ds.collector.orphanJoin", "false").trim()));
+        flowController.setCollectorHeapBudgetMb(Long.parseLong(systemProperties.getProperty("ds.collector.heapBudget.mb", "0").trim()));
 
         flowController.setDsFilesUpdateDelay(Integer.parseInt(systemProperties.getProperty("ds.filesUpdateDelay.hour"))*60*60);
+        flowController.setStreamListings(Boolean.parseBoolean(systemProperties.getProperty("ds.update.streaming", "false").trim()));
+        flowController.setCompressedTransfer(Boolean.parseBoolean(systemProperties.getProperty("ds.update.compressed", "false").trim()));
+        flowController.setDeltaListings(Boolean.parseBoolean(systemProperties.getProperty("ds.update.delta", "false").trim()));
+        flowController.setListingSnapshots(Boolean.parseBoolean(systemProperties.getProperty("ds.snapshot.enabled", "false").trim()));
     }
 
     public static void saveUserCredential(SshWorker session, Path file) {
@@ -1,210 +1,203 @@
 package ru.asb.dataset;
 
 
-import ru.asb.Main;
-import ru.asb.script.Scriptable;
+import ru.asb.dataset.parsers.ListingTimestamp;
 import ru.asb.util.Unit;
 import ru.asb.util.Util;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.time.format.DateTimeParseException;
-import java.time.temporal.ChronoField;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-public class Dataset implements CsvWriteable, Scriptable, Comparable<Dataset> {
-    private static String regex;
-    private static int sizeGroup;
-    private static int lastUsedGroup;
-    private static int folderGroup;
-    private static int nameGroup;
-    private static int extensionGroup;
-    private static int invocationGroup;
-    private static boolean firstInit = true;
-
-    private String descriptorFolder = null;
+
+public class Dataset implements DatasetView, Comparable<Dataset> {
+    private static final DateTimeFormatter csvDateFormatter = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
+
+    static final int NO_FOLDER = -1;
+    private static final long[] NO_ENTRIES = new long[0];
+
+    private int descriptorFolder = NO_FOLDER;
     private String name = null;
     private String extension = null;
-    private LocalDateTime lastUsed = null;
-    private final Map<String, StringBuilder> folderInvocationMap = new TreeMap<>();
+    private long lastUsed = ListingTimestamp.NO_DATE;
+    /**
+     * Файлы данных: идентификатор папки (старшие 32 бита) и идентификатор суффикса файла (младшие 32 бита)
+     * в {@link StringDictionary#FOLDERS} и {@link StringDictionary#INVOCATIONS}
+     * */
+    private long[] dataFiles = NO_ENTRIES;
+    private int dataFilesCount = 0;
     private long size = 0L;
     private boolean correct = true;
 
-    public Dataset(String datasetPartString, boolean isDescriptor) {
-        parse(datasetPartString, isDescriptor);
-    }
-
-    private void parse(String datasetPartString, boolean isDescriptor) {
-        if (firstInit) {
-            regex = Main.getSystemProperties().getProperty("ds.parser.regex");
-            sizeGroup = Integer.parseInt(Main.getSystemProperties().getProperty("ds.parser.group.size"));
-            lastUsedGroup = Integer.parseInt(Main.getSystemProperties().getProperty("ds.parser.group.lastUse"));
-            folderGroup = Integer.parseInt(Main.getSystemProperties().getProperty("ds.parser.group.folder"));
-            nameGroup = Integer.parseInt(Main.getSystemProperties().getProperty("ds.parser.group.name"));
-            extensionGroup = Integer.parseInt(Main.getSystemProperties().getProperty("ds.parser.group.extension"));
-            invocationGroup = Integer.parseInt(Main.getSystemProperties().getProperty("ds.parser.group.invocation"));
-            firstInit = false;
+    /**
+     * Дата-сет из разобранной строки листинга.
+     * @param lastUsed дата последнего использования в секундах эпохи или {@link ListingTimestamp#NO_DATE}.
+     * @see ru.asb.dataset.parsers.DatasetLineParser
+     * */
+    public Dataset(String folder, String name, String extension, String invocation, long size, long lastUsed, boolean isDescriptor) {
+        this.name = name;
+        this.extension = extension;
+        this.size = size;
+        this.lastUsed = lastUsed;
+        this.correct = name != null && !name.isEmpty();
+        if (folder != null) {
+            if (isDescriptor) {
+                this.descriptorFolder = StringDictionary.FOLDERS.id(folder);
+            } else {
+                this.dataFiles = new long[]{dataFile(StringDictionary.FOLDERS.id(folder), StringDictionary.INVOCATIONS.id(invocation == null ? "" : invocation))};
+                this.dataFilesCount = 1;
+            }
         }
+    }
 
-        Matcher matcher = Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.MULTILINE).matcher(datasetPartString);
-        if (matcher.find()) {
-            String sizeStr = matcher.group(sizeGroup);
-            if (sizeStr != null) this.size = Long.parseLong(sizeStr);
-
-            String lastUsedStr = matcher.group(lastUsedGroup);
-            if (lastUsedStr != null) {
-                lastUsedStr = lastUsedStr.replaceAll("\\s+", " ");
-                try {
-                    DateTimeFormatter dtf = new DateTimeFormatterBuilder().appendPattern("MMM d[d] HH:mm").parseDefaulting(ChronoField.YEAR, LocalDateTime.now().getYear()).toFormatter(Locale.ENGLISH);
-                    this.lastUsed = LocalDateTime.parse(lastUsedStr, dtf);
-                    if (this.lastUsed.isAfter(LocalDateTime.now())) {
-                        dtf = new DateTimeFormatterBuilder().appendPattern("MMM d[d] HH:mm").parseDefaulting(ChronoField.YEAR, LocalDateTime.now().getYear() - 1).toFormatter(Locale.ENGLISH);
-                        this.lastUsed = LocalDateTime.parse(lastUsedStr, dtf);
-                    }
-                } catch (DateTimeParseException e) {
-                    DateTimeFormatter dtf = new DateTimeFormatterBuilder().appendPattern("MMM d[d] yyyy").parseDefaulting(ChronoField.HOUR_OF_DAY, 0).toFormatter(Locale.ENGLISH);
-                    this.lastUsed = LocalDateTime.parse(lastUsedStr, dtf);
-                }
-            }
+    /**
+     * Дата-сет из колонок {@link DatasetStore}
+     * */
+    Dataset(String name, String extension, long size, long lastUsed, int descriptorFolder, long[] dataFiles) {
+        this.name = name;
+        this.extension = extension;
+        this.size = size;
+        this.lastUsed = lastUsed;
+        this.descriptorFolder = descriptorFolder;
+        this.dataFiles = dataFiles;
+        this.dataFilesCount = dataFiles.length;
+    }
 
-            StringBuilder invocations = new StringBuilder();
-            String invocation = matcher.group(invocationGroup);
-            if (invocation != null)
-                if (invocations.toString().isEmpty())
-                    invocations.append(invocation.trim());
-                else
-                    invocations.append('|').append(invocation.trim());
-
-            String folder = matcher.group(folderGroup);
-            if (folder != null) {
-                if (isDescriptor)
-                    this.descriptorFolder = folder;
-                else
-                    this.folderInvocationMap.put(folder, invocations);
-            }
+    static long dataFile(int folderId, int invocationId) {
+        return ((long) folderId << 32) | (invocationId & 0xFFFFFFFFL);
+    }
 
-            String potentialName = matcher.group(nameGroup).trim();
-            if (potentialName.isEmpty()) {
-                this.correct = false;
-                this.name = "Incorrect dataset name";
-            } else {
-                this.name = potentialName;
-            }
+    private static String folder(long dataFile) {
+        return StringDictionary.FOLDERS.get((int) (dataFile >>> 32));
+    }
 
-            this.extension = matcher.group(extensionGroup);
-        } else {
-            this.correct = false;
-        }
+    private static String invocation(long dataFile) {
+        return StringDictionary.INVOCATIONS.get((int) dataFile);
     }
 
-    public void merge(Dataset dataset) {
+    /**
+     * Объединяет дата-сеты с одинаковым именем. Потокобезопасен для параллельного сбора.
+     * */
+    public synchronized void merge(Dataset dataset) {
         if (this.isCorrect() && dataset.isCorrect() && this.name.equals(dataset.name)) {
-            for (Map.Entry<String, StringBuilder> pair : dataset.folderInvocationMap.entrySet()) {
-                if (this.folderInvocationMap.containsKey(pair.getKey())) {
-                    this.folderInvocationMap.get(pair.getKey()).append('|').append(pair.getValue());
-                } else {
-                    this.folderInvocationMap.put(pair.getKey(), pair.getValue());
-                }
+            if (dataset.dataFilesCount > 0) {
+                if (this.dataFilesCount + dataset.dataFilesCount > this.dataFiles.length)
+                    this.dataFiles = Arrays.copyOf(this.dataFiles, Math.max(this.dataFilesCount + dataset.dataFilesCount, this.dataFiles.length * 2));
+                System.arraycopy(dataset.dataFiles, 0, this.dataFiles, this.dataFilesCount, dataset.dataFilesCount);
+                this.dataFilesCount += dataset.dataFilesCount;
             }
-            if (this.lastUsed.isBefore(dataset.lastUsed)) {
+            if (this.lastUsed < dataset.lastUsed) {
                 this.lastUsed = dataset.lastUsed;
             }
-            if (this.descriptorFolder == null && dataset.descriptorFolder != null) {
+            if (this.descriptorFolder == NO_FOLDER && dataset.descriptorFolder != NO_FOLDER) {
                 this.descriptorFolder = dataset.descriptorFolder;
             }
             this.size += dataset.size;
         }
     }
 
+    @Override
     public long size() {
         return this.size;
     }
 
-    public List<String> getDataFolders() {
-        LinkedList<String> foldersList = new LinkedList<>(folderInvocationMap.keySet());
-        Collections.sort(foldersList);
-        return foldersList;
-    }
-
-    public String getDescriptorFolder() {
+    int getDescriptorFolderId() {
         return descriptorFolder;
     }
 
-    public List<String> getAllFolders() {
-        List<String> foldersList = getDataFolders();
-        if (descriptorFolder != null && !descriptorFolder.isEmpty())
-            foldersList.add(0, descriptorFolder);
-        return foldersList;
+    synchronized long[] getDataFiles() {
+        return Arrays.copyOf(dataFiles, dataFilesCount);
     }
 
-    public LocalDateTime getLastUsed() {
-        return lastUsed;
+    synchronized int getDataFilesCount() {
+        return dataFilesCount;
     }
 
-    public boolean isCorrect() {
-        return correct;
+    private long[] sortedDataFiles() {
+        return sortDataFiles(getDataFiles());
     }
 
-    public boolean inFilter(List<String> filterList) {
-        for (String filter : filterList) {
-            if (this.name.equals(filter))
-                return true;
+    /**
+     * Сортирует файлы данных по папке (с сохранением порядка добавления внутри папки).
+     * Папки ищутся в словаре по одному разу и ранжируются по имени, затем сортируются ключи (ранг, позиция).
+     * */
+    static long[] sortDataFiles(long[] dataFiles) {
+        int n = dataFiles.length;
+        if (n < 2)
+            return dataFiles;
+        String[] folders = new String[n];
+        boolean sorted = true;
+        for (int i = 0; i < n; i++) {
+            folders[i] = folder(dataFiles[i]);
+            if (i > 0 && folders[i - 1].compareTo(folders[i]) > 0)
+                sorted = false;
         }
-        return false;
+        if (sorted)
+            return dataFiles;
+
+        String[] ranked = folders.clone();
+        Arrays.sort(ranked);
+        int ranks = 1;
+        for (int i = 1; i < n; i++) {
+            if (!ranked[i].equals(ranked[ranks - 1]))
+                ranked[ranks++] = ranked[i];
+        }
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = (long) Arrays.binarySearch(ranked, 0, ranks, folders[i]) << 32 | i;
+        Arrays.sort(keys);
+        long[] sortedFiles = new long[n];
+        for (int i = 0; i < n; i++)
+            sortedFiles[i] = dataFiles[(int) keys[i]];
+        return sortedFiles;
     }
 
-    /**
-     * Is dataset in Exceptions
-     * */
-    public boolean inExceptions(Collection<String> exceptions) {
-        for (String regex : exceptions) {
-            Matcher matcher = Pattern.compile(regex, Pattern.CASE_INSENSITIVE).matcher(name);
-            if (matcher.find()) {
-                return true;
-            }
+    @Override
+    public List<String> getDataFolders() {
+        return dataFolders(sortedDataFiles());
+    }
+
+    static List<String> dataFolders(long[] sortedDataFiles) {
+        LinkedList<String> foldersList = new LinkedList<>();
+        for (long dataFile : sortedDataFiles) {
+            String folder = folder(dataFile);
+            if (foldersList.isEmpty() || !foldersList.getLast().equals(folder))
+                foldersList.add(folder);
         }
-        return false;
+        return foldersList;
     }
 
-    /**
-     * Check is dataset in Exceptions
-     * */
-    public boolean inExceptions(String[] exceptions) {
-        return inExceptions(Arrays.asList(exceptions));
+    @Override
+    public String getDescriptorFolder() {
+        return folderName(descriptorFolder);
     }
 
-    /**
-     * Check is dataset expired
-     * */
-    public boolean isExpired(int validityPeriodInDays) {
-        return (LocalDateTime.now().minusDays(validityPeriodInDays)).isAfter(getLastUsed());
+    static String folderName(int folderId) {
+        return folderId == NO_FOLDER ? null : StringDictionary.FOLDERS.get(folderId);
     }
 
-    /**
-     * @return true if dataset doesn't have descriptor file; false if dataset has descriptor file.
-     * */
-    public boolean isOrphan() {
-        return descriptorFolder == null;
+    @Override
+    public long getLastUsedEpoch() {
+        return lastUsed;
     }
 
-    /**
-     * Is dataset match the regex
-     * */
-    public boolean matches(String regex) {
-        return Pattern.compile(regex, Pattern.CASE_INSENSITIVE).matcher(name+extension).find();
+    public boolean isCorrect() {
+        return correct;
+    }
+
+    @Override
+    public boolean isOrphan() {
+        return descriptorFolder == NO_FOLDER;
     }
 
+    @Override
     public String getName() {
         return this.name;
     }
 
-    public String getFullName() {
-        return this.name + this.extension;
+    @Override
+    public String getExtension() {
+        return this.extension;
     }
 
     @Override
@@ -214,59 +207,74 @@ public class Dataset implements CsvWriteable, Scriptable, Comparable<Dataset> {
 
     @Override
     public String getCsvRow() {
-        if (this.isCorrect()) {
-            String stringSize = String.format("%-10.3f", Util.size(size, Unit.MEGABYTE));
-            return String.format("\"%s\";\"%s\";\"%s\";\"%s\"", Arrays.toString(getAllFolders().toArray(new String[0])), name + extension, stringSize, lastUsed.format(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm")));//, new Script(this).inline().toString());
-        } else {
-            return "";
-        }
+        return this.isCorrect() ? csvRow(this) : "";
     }
 
-    @Override
-    public String getCsvHeader() {
-        return "\"Folders\";\"Name\";\"Size, mb\";\"Last use date\"";
+    static String csvRow(DatasetView dataset) {
+        String stringSize = String.format("%-10.3f", Util.size(dataset.size(), Unit.MEGABYTE));
+        return String.format("\"%s\";\"%s\";\"%s\";\"%s\"", Arrays.toString(dataset.getAllFolders().toArray(new String[0])), dataset.getFullName(), stringSize, dataset.getLastUsedEpoch() == ListingTimestamp.NO_DATE ? "" : csvDateFormatter.format(dataset.getLastUsed()));//, new Script(this).inline().toString());
     }
 
     @Override
     public Collection<String> getScriptRows(String prefix, String postfix) {
+        if (this.isCorrect())
+            return scriptRows(getDescriptorFolder(), getFullName(), sortedDataFiles(), prefix, postfix);
+        return new ArrayList<>();
+    }
+
+    static Collection<String> scriptRows(String descriptorFolder, String fullName, long[] sortedDataFiles, String prefix, String postfix) {
         Collection<String> scriptRows = new ArrayList<>();
-        if (this.isCorrect()) {
-            if (prefix == null)
-                prefix = "";
-            if (!prefix.isEmpty())
-                prefix = prefix.trim() + " ";
-            if (postfix == null)
-                postfix = "";
-            if (!postfix.isEmpty())
-                postfix = " " + postfix.trim();
-
-            if (this.descriptorFolder != null && !this.descriptorFolder.isEmpty()) {
-                scriptRows.add(String.format("%s'%s%s%s'%s;",prefix, descriptorFolder, name, extension, postfix));
-            }
-            for (Map.Entry<String, StringBuilder> pair : folderInvocationMap.entrySet()) {
-                String folder = pair.getKey();
-                String[] invocations = pair.getValue().toString().split("\\|");
-                for (String invocation : invocations) {
-                    if (!invocation.isEmpty() && !invocation.matches("\\s+"))
-                        scriptRows.add(String.format("%s'%s%s%s%s'%s;",prefix, folder, name, extension, invocation, postfix));
-                }
-            }
+        if (prefix == null)
+            prefix = "";
+        if (!prefix.isEmpty())
+            prefix = prefix.trim() + " ";
+        if (postfix == null)
+            postfix = "";
+        if (!postfix.isEmpty())
+            postfix = " " + postfix.trim();
+
+        if (descriptorFolder != null && !descriptorFolder.isEmpty()) {
+            scriptRows.add(String.format("%s'%s%s'%s;",prefix, descriptorFolder, fullName, postfix));
+        }
+        for (long dataFile : sortedDataFiles) {
+            String invocation = invocation(dataFile);
+            if (!invocation.isEmpty())
+                scriptRows.add(String.format("%s'%s%s%s'%s;",prefix, folder(dataFile), fullName, invocation, postfix));
         }
         return scriptRows;
     }
 
+    @Override
     public Collection<Path> getPaths() {
+        return paths(getDescriptorFolder(), getFullName(), sortedDataFiles());
+    }
+
+    static Collection<Path> paths(String descriptorFolder, String fullName, long[] sortedDataFiles) {
         Collection<Path> dsPaths = new ArrayList<>();
-        if (this.descriptorFolder != null && !this.descriptorFolder.isEmpty()) {
-            dsPaths.add(Paths.get(descriptorFolder + name + extension));
+        for (String scriptPath : scriptPaths(descriptorFolder, fullName, sortedDataFiles))
+            dsPaths.add(Paths.get(scriptPath));
+        return dsPaths;
+    }
+
+    @Override
+    public Collection<String> getScriptPaths() {
+        if (this.isCorrect())
+            return scriptPaths(getDescriptorFolder(), getFullName(), sortedDataFiles());
+        return new ArrayList<>();
+    }
+
+    /**
+     * Пути файлов дата-сета на сервере (с прямыми слешами) в порядке строк скрипта
+     * */
+    static Collection<String> scriptPaths(String descriptorFolder, String fullName, long[] sortedDataFiles) {
+        Collection<String> dsPaths = new ArrayList<>();
+        if (descriptorFolder != null && !descriptorFolder.isEmpty()) {
+            dsPaths.add(descriptorFolder + fullName);
         }
-        for (Map.Entry<String, StringBuilder> pair : folderInvocationMap.entrySet()) {
-            String folder = pair.getKey();
-            String[] invocations = pair.getValue().toString().split("\\|");
-            for (String invocation : invocations) {
-                if (!invocation.isEmpty() && !invocation.matches("\\s+"))
-                    dsPaths.add(Paths.get(folder + name + extension + invocation));
-            }
+        for (long dataFile : sortedDataFiles) {
+            String invocation = invocation(dataFile);
+            if (!invocation.isEmpty())
+                dsPaths.add(folder(dataFile) + fullName + invocation);
         }
         return dsPaths;
     }
@@ -0,0 +1,175 @@
+package ru.asb.dataset;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Временный файл с дата-сетами, отсортированными по имени (серия внешней сортировки).
+ * Папки и суффиксы хранятся идентификаторами {@link StringDictionary}, поэтому файл действителен только в текущем процессе.
+ * */
+public final class DatasetRunFile {
+    private static final byte RECORD = 1;
+    private static final byte END = 0;
+
+    private DatasetRunFile() {
+    }
+
+    /**
+     * Оценка занимаемой дата-сетом памяти в куче, байт
+     * */
+    public static long estimateHeapSize(Dataset dataset) {
+        return 160L + dataset.getName().length() * 2L + dataset.getDataFilesCount() * 8L;
+    }
+
+    /**
+     * Прирост памяти при объединении дата-сета с уже собранным (добавляются только файлы данных), байт
+     * */
+    public static long estimateMergedSize(Dataset dataset) {
+        return dataset.getDataFilesCount() * 8L;
+    }
+
+    public static final class Writer implements Closeable {
+        private final DataOutputStream output;
+        private long count = 0;
+
+        public Writer(Path file) throws IOException {
+            this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+        }
+
+        /**
+         * Дата-сеты должны записываться в порядке возрастания имени
+         * */
+        public void write(Dataset dataset) throws IOException {
+            long[] dataFiles = dataset.getDataFiles();
+            output.writeByte(RECORD);
+            output.writeUTF(dataset.getName());
+            output.writeBoolean(dataset.getExtension() != null);
+            if (dataset.getExtension() != null)
+                output.writeUTF(dataset.getExtension());
+            output.writeLong(dataset.size());
+            output.writeLong(dataset.getLastUsedEpoch());
+            output.writeInt(dataset.getDescriptorFolderId());
+            output.writeInt(dataFiles.length);
+            for (long dataFile : dataFiles)
+                output.writeLong(dataFile);
+            count++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.writeByte(END);
+            output.close();
+        }
+    }
+
+    /**
+     * Последовательное чтение дата-сетов; {@link #peek()} позволяет сравнивать серии при слиянии
+     * */
+    public static final class Reader implements Closeable {
+        private final CountingInputStream counter;
+        private final DataInputStream input;
+        private final long start;
+        private long nextPosition;
+        private Dataset next;
+
+        public Reader(Path file) throws IOException {
+            this(file, 0L);
+        }
+
+        /**
+         * @param position смещение записи, с которой начинается чтение ({@link #getPosition()} предыдущего чтения).
+         * */
+        public Reader(Path file, long position) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            this.start = position;
+            this.counter = new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+            this.input = new DataInputStream(counter);
+            try {
+                channel.position(position);
+                this.next = read();
+            } catch (IOException e) {
+                input.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return смещение в файле записи, возвращаемой {@link #peek()}
+         * */
+        public long getPosition() {
+            return nextPosition;
+        }
+
+        /**
+         * @return следующий дата-сет без перехода к следующему или null, если серия закончилась
+         * */
+        public Dataset peek() {
+            return next;
+        }
+
+        public Dataset next() throws IOException {
+            Dataset current = next;
+            next = current == null ? null : read();
+            return current;
+        }
+
+        private Dataset read() throws IOException {
+            nextPosition = start + counter.count;
+            if (input.readByte() == END)
+                return null;
+            String name = input.readUTF();
+            String extension = input.readBoolean() ? input.readUTF() : null;
+            long size = input.readLong();
+            long lastUsed = input.readLong();
+            int descriptorFolder = input.readInt();
+            long[] dataFiles = new long[input.readInt()];
+            for (int i = 0; i < dataFiles.length; i++)
+                dataFiles[i] = input.readLong();
+            return new Dataset(name, extension, size, lastUsed, descriptorFolder, dataFiles);
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
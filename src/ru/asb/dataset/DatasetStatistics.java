@@ -0,0 +1,91 @@
+package ru.asb.dataset;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Сводные показатели коллектора, которые обновляются при сборе каждой строки листинга:
+ * количество дата-сетов, общий размер, количество сирот и размер по папкам листингов.
+ * Получение показателей не требует прохода по собранным дата-сетам. Потокобезопасен.
+ * */
+public class DatasetStatistics {
+    private final LongAdder count;
+    private final LongAdder orphansCount;
+    private final LongAdder totalSize;
+    private final ConcurrentMap<Integer, LongAdder> folderSizes;
+
+    public DatasetStatistics() {
+        this(new LongAdder(), new LongAdder(), new LongAdder(), new ConcurrentHashMap<>());
+    }
+
+    private DatasetStatistics(LongAdder count, LongAdder orphansCount, LongAdder totalSize, ConcurrentMap<Integer, LongAdder> folderSizes) {
+        this.count = count;
+        this.orphansCount = orphansCount;
+        this.totalSize = totalSize;
+        this.folderSizes = folderSizes;
+    }
+
+    /**
+     * Строка листинга стала новым дата-сетом
+     * */
+    public void added(Dataset row) {
+        count.increment();
+        if (row.isOrphan())
+            orphansCount.increment();
+        addSize(row);
+    }
+
+    /**
+     * Строка листинга объединена с собранным дата-сетом.
+     * @param descriptorJoined дата-сет был сиротой и получил дескриптор из этой строки.
+     * */
+    public void merged(Dataset row, boolean descriptorJoined) {
+        if (descriptorJoined)
+            orphansCount.decrement();
+        addSize(row);
+    }
+
+    private void addSize(Dataset row) {
+        totalSize.add(row.size());
+        int folder = row.getDescriptorFolderId();
+        if (folder == Dataset.NO_FOLDER && row.getDataFilesCount() > 0)
+            folder = (int) (row.getDataFiles()[0] >>> 32);
+        if (folder != Dataset.NO_FOLDER)
+            folderSizes.computeIfAbsent(folder, id -> new LongAdder()).add(row.size());
+    }
+
+    /**
+     * Показатели с тем же размером и другим количеством дата-сетов (например, после слияния серий внешней сортировки)
+     * */
+    public DatasetStatistics withCounts(long count, long orphansCount) {
+        DatasetStatistics statistics = new DatasetStatistics(new LongAdder(), new LongAdder(), totalSize, folderSizes);
+        statistics.count.add(count);
+        statistics.orphansCount.add(orphansCount);
+        return statistics;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getOrphansCount() {
+        return orphansCount.sum();
+    }
+
+    public long getTotalSize() {
+        return totalSize.sum();
+    }
+
+    /**
+     * Размер строк листингов по папкам, отсортированный по имени папки
+     * */
+    public Map<String, Long> getFolderSizes() {
+        Map<String, Long> sizes = new TreeMap<>();
+        for (Map.Entry<Integer, LongAdder> entry : folderSizes.entrySet())
+            sizes.put(StringDictionary.FOLDERS.get(entry.getKey()), entry.getValue().sum());
+        return sizes;
+    }
+}
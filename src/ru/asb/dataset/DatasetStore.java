@@ -0,0 +1,426 @@
+package ru.asb.dataset;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Колоночное хранилище дата-сетов для десятков миллионов записей.
+ * Имена хранятся вне кучи (в прямых буферах), остальные свойства - в примитивных колонках:
+ * размер, дата последнего использования, флаги, идентификатор папки дескриптора и расширения.
+ * Файлы данных - отдельная таблица колонок (папка, суффикс, следующий файл дата-сета) с идентификаторами {@link StringDictionary}.
+ * Строки хранилища доступны как {@link DatasetView} без создания объектов Dataset.
+ * Добавление потокобезопасно; чтение строк выполняется после окончания сбора.
+ * */
+public class DatasetStore {
+    private static final int ARENA_CHUNK_BITS = 24;
+    private static final int ARENA_CHUNK_SIZE = 1 << ARENA_CHUNK_BITS;
+    private static final int NONE = -1;
+    private static final byte FLAG_UTF16 = 1;
+
+    //Имена вне кучи: Latin-1 по байту на символ, иначе по два байта
+    private final List<ByteBuffer> arena = new ArrayList<>();
+    private int chunkPosition = ARENA_CHUNK_SIZE;
+
+    //Колонки дата-сетов
+    private int count = 0;
+    private long[] nameRef = new long[0];
+    private int[] nameLength = new int[0];
+    private int[] nameHash = new int[0];
+    private byte[] flags = new byte[0];
+    private int[] extension = new int[0];
+    private long[] size = new long[0];
+    private long[] lastUsed = new long[0];
+    private int[] descriptorFolder = new int[0];
+    private int[] firstFile = new int[0];
+    private int[] lastFile = new int[0];
+
+    //Колонки файлов данных
+    private int filesCount = 0;
+    private int[] fileFolder = new int[0];
+    private int[] fileInvocation = new int[0];
+    private int[] nextFile = new int[0];
+
+    //Индекс по имени (открытая адресация), номер строки или NONE
+    private int[] index = newIndex(1024);
+
+    private final StringDictionary extensions = new StringDictionary();
+    private final DatasetStatistics statistics = new DatasetStatistics();
+    private int[] sortedRows = null;
+
+    /**
+     * Добавляет дата-сет или объединяет его с уже собранным дата-сетом с тем же именем
+     * */
+    public synchronized void add(Dataset dataset) {
+        if (!dataset.isCorrect())
+            return;
+        String name = dataset.getName();
+        int hash = name.hashCode();
+        int slot = slot(name, hash);
+        int row = index[slot];
+        if (row == NONE) {
+            row = newRow(name, hash, dataset);
+            index[slot] = row;
+            if (count * 2 > index.length)
+                rehash();
+            statistics.added(dataset);
+        } else {
+            size[row] += dataset.size();
+            if (lastUsed[row] < dataset.getLastUsedEpoch())
+                lastUsed[row] = dataset.getLastUsedEpoch();
+            boolean descriptorJoined = descriptorFolder[row] == Dataset.NO_FOLDER && dataset.getDescriptorFolderId() != Dataset.NO_FOLDER;
+            if (descriptorFolder[row] == Dataset.NO_FOLDER)
+                descriptorFolder[row] = dataset.getDescriptorFolderId();
+            statistics.merged(dataset, descriptorJoined);
+        }
+        for (long dataFile : dataset.getDataFiles())
+            addDataFile(row, dataFile);
+        sortedRows = null;
+    }
+
+    /**
+     * Сводные показатели, обновляемые при добавлении
+     * */
+    public DatasetStatistics getStatistics() {
+        return statistics;
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Объем памяти вне кучи, занятый именами
+     * */
+    public synchronized long offHeapBytes() {
+        return (long) arena.size() * ARENA_CHUNK_SIZE;
+    }
+
+    /**
+     * Строки хранилища, отсортированные по имени. Элементы списка создаются при обращении и не копируют данные.
+     * */
+    public synchronized List<DatasetView> rows() {
+        final int[] rows = sortedRows();
+        return new RowList(rows);
+    }
+
+    /**
+     * Все дата-сеты хранилища в виде объектов Dataset, отсортированные по имени
+     * */
+    public synchronized List<Dataset> getDatasets() {
+        int[] rows = sortedRows();
+        List<Dataset> dsList = new ArrayList<>(rows.length);
+        for (int row : rows)
+            dsList.add(toDataset(row));
+        return dsList;
+    }
+
+    private Dataset toDataset(int row) {
+        return new Dataset(name(row), extension(row), size[row], lastUsed[row], descriptorFolder[row], dataFiles(row));
+    }
+
+    private int newRow(String name, int hash, Dataset dataset) {
+        if (count == size.length)
+            growRows(Math.max(1024, count + (count >> 1)));
+        int row = count++;
+        boolean utf16 = false;
+        for (int i = 0; i < name.length() && !utf16; i++)
+            utf16 = name.charAt(i) > 0xFF;
+        nameRef[row] = putName(name, utf16);
+        nameLength[row] = name.length();
+        nameHash[row] = hash;
+        flags[row] = utf16 ? FLAG_UTF16 : 0;
+        extension[row] = dataset.getExtension() == null ? NONE : extensions.id(dataset.getExtension());
+        size[row] = dataset.size();
+        lastUsed[row] = dataset.getLastUsedEpoch();
+        descriptorFolder[row] = dataset.getDescriptorFolderId();
+        firstFile[row] = NONE;
+        lastFile[row] = NONE;
+        return row;
+    }
+
+    private void growRows(int capacity) {
+        nameRef = Arrays.copyOf(nameRef, capacity);
+        nameLength = Arrays.copyOf(nameLength, capacity);
+        nameHash = Arrays.copyOf(nameHash, capacity);
+        flags = Arrays.copyOf(flags, capacity);
+        extension = Arrays.copyOf(extension, capacity);
+        size = Arrays.copyOf(size, capacity);
+        lastUsed = Arrays.copyOf(lastUsed, capacity);
+        descriptorFolder = Arrays.copyOf(descriptorFolder, capacity);
+        firstFile = Arrays.copyOf(firstFile, capacity);
+        lastFile = Arrays.copyOf(lastFile, capacity);
+    }
+
+    private void addDataFile(int row, long dataFile) {
+        if (filesCount == fileFolder.length) {
+            int capacity = Math.max(1024, filesCount + (filesCount >> 1));
+            fileFolder = Arrays.copyOf(fileFolder, capacity);
+            fileInvocation = Arrays.copyOf(fileInvocation, capacity);
+            nextFile = Arrays.copyOf(nextFile, capacity);
+        }
+        int file = filesCount++;
+        fileFolder[file] = (int) (dataFile >>> 32);
+        fileInvocation[file] = (int) dataFile;
+        nextFile[file] = NONE;
+        if (lastFile[row] == NONE)
+            firstFile[row] = file;
+        else
+            nextFile[lastFile[row]] = file;
+        lastFile[row] = file;
+    }
+
+    /**
+     * Файлы данных строки в порядке добавления в формате {@link Dataset}
+     * */
+    private long[] dataFiles(int row) {
+        int filesNumber = 0;
+        for (int file = firstFile[row]; file != NONE; file = nextFile[file])
+            filesNumber++;
+        long[] dataFiles = new long[filesNumber];
+        int i = 0;
+        for (int file = firstFile[row]; file != NONE; file = nextFile[file])
+            dataFiles[i++] = Dataset.dataFile(fileFolder[file], fileInvocation[file]);
+        return dataFiles;
+    }
+
+    private static int[] newIndex(int capacity) {
+        int[] newIndex = new int[capacity];
+        Arrays.fill(newIndex, NONE);
+        return newIndex;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private int slot(String name, int hash) {
+        int mask = index.length - 1;
+        int slot = mix(hash) & mask;
+        while (index[slot] != NONE) {
+            int row = index[slot];
+            if (nameHash[row] == hash && nameEquals(row, name))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        int[] newIndex = newIndex(index.length * 2);
+        int mask = newIndex.length - 1;
+        for (int row = 0; row < count; row++) {
+            int slot = mix(nameHash[row]) & mask;
+            while (newIndex[slot] != NONE)
+                slot = (slot + 1) & mask;
+            newIndex[slot] = row;
+        }
+        index = newIndex;
+    }
+
+    private long putName(String name, boolean utf16) {
+        int bytes = utf16 ? name.length() * 2 : name.length();
+        if (bytes > ARENA_CHUNK_SIZE)
+            throw new IllegalArgumentException("Dataset name is too long: " + name.length());
+        if (chunkPosition + bytes > ARENA_CHUNK_SIZE) {
+            arena.add(ByteBuffer.allocateDirect(ARENA_CHUNK_SIZE));
+            chunkPosition = 0;
+        }
+        ByteBuffer chunk = arena.get(arena.size() - 1);
+        for (int i = 0; i < name.length(); i++) {
+            if (utf16)
+                chunk.putChar(chunkPosition + i * 2, name.charAt(i));
+            else
+                chunk.put(chunkPosition + i, (byte) name.charAt(i));
+        }
+        long ref = ((long) (arena.size() - 1) << ARENA_CHUNK_BITS) | chunkPosition;
+        chunkPosition += bytes;
+        return ref;
+    }
+
+    private char nameCharAt(int row, int i) {
+        ByteBuffer chunk = arena.get((int) (nameRef[row] >>> ARENA_CHUNK_BITS));
+        int offset = (int) (nameRef[row] & (ARENA_CHUNK_SIZE - 1));
+        if ((flags[row] & FLAG_UTF16) != 0)
+            return chunk.getChar(offset + i * 2);
+        return (char) (chunk.get(offset + i) & 0xFF);
+    }
+
+    private boolean nameEquals(int row, String name) {
+        int length = nameLength[row];
+        if (length != name.length())
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (nameCharAt(row, i) != name.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Сравнение имен строк, совпадает с {@link String#compareTo(String)}
+     * */
+    private int compareNames(int row1, int row2) {
+        int length1 = nameLength[row1];
+        int length2 = nameLength[row2];
+        int limit = Math.min(length1, length2);
+        for (int i = 0; i < limit; i++) {
+            char c1 = nameCharAt(row1, i);
+            char c2 = nameCharAt(row2, i);
+            if (c1 != c2)
+                return c1 - c2;
+        }
+        return length1 - length2;
+    }
+
+    private String name(int row) {
+        char[] chars = new char[nameLength[row]];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = nameCharAt(row, i);
+        return new String(chars);
+    }
+
+    private String extension(int row) {
+        return extension[row] == NONE ? null : extensions.get(extension[row]);
+    }
+
+    private int[] sortedRows() {
+        if (sortedRows == null) {
+            int[] rows = new int[count];
+            for (int row = 0; row < count; row++)
+                rows[row] = row;
+            mergeSort(rows, new int[count], 0, count);
+            sortedRows = rows;
+        }
+        return sortedRows;
+    }
+
+    private void mergeSort(int[] rows, int[] buffer, int from, int to) {
+        if (to - from < 2)
+            return;
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle);
+        mergeSort(rows, buffer, middle, to);
+        if (compareNames(rows[middle - 1], rows[middle]) <= 0)
+            return;
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && compareNames(buffer[left], buffer[right]) <= 0))
+                rows[i] = buffer[left++];
+            else
+                rows[i] = buffer[right++];
+        }
+    }
+
+    private final class RowList extends AbstractList<DatasetView> implements RandomAccess {
+        private final int[] rows;
+
+        private RowList(int[] rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public DatasetView get(int i) {
+            return new Row(rows[i]);
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+    }
+
+    /**
+     * Строка хранилища: номер строки и ссылка на колонки
+     * */
+    private final class Row implements DatasetView {
+        private final int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        private long[] sortedDataFiles() {
+            return Dataset.sortDataFiles(dataFiles(row));
+        }
+
+        @Override
+        public String getName() {
+            return name(row);
+        }
+
+        @Override
+        public String getExtension() {
+            return extension(row);
+        }
+
+        @Override
+        public long size() {
+            return size[row];
+        }
+
+        @Override
+        public long getLastUsedEpoch() {
+            return lastUsed[row];
+        }
+
+        @Override
+        public String getDescriptorFolder() {
+            return Dataset.folderName(descriptorFolder[row]);
+        }
+
+        @Override
+        public boolean isOrphan() {
+            return descriptorFolder[row] == Dataset.NO_FOLDER;
+        }
+
+        @Override
+        public List<String> getDataFolders() {
+            return Dataset.dataFolders(sortedDataFiles());
+        }
+
+        @Override
+        public Collection<Path> getPaths() {
+            return Dataset.paths(getDescriptorFolder(), getFullName(), sortedDataFiles());
+        }
+
+        @Override
+        public Collection<String> getScriptRows(String prefix, String postfix) {
+            return Dataset.scriptRows(getDescriptorFolder(), getFullName(), sortedDataFiles(), prefix, postfix);
+        }
+
+        @Override
+        public Collection<String> getScriptPaths() {
+            return Dataset.scriptPaths(getDescriptorFolder(), getFullName(), sortedDataFiles());
+        }
+
+        @Override
+        public String getCsvRow() {
+            return Dataset.csvRow(this);
+        }
+
+        @Override
+        public String toString() {
+            return getCsvRow();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Row other = (Row) o;
+            return row == other.row && store() == other.store();
+        }
+
+        @Override
+        public int hashCode() {
+            return row;
+        }
+
+        private DatasetStore store() {
+            return DatasetStore.this;
+        }
+    }
+}
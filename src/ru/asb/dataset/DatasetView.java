@@ -0,0 +1,130 @@
+package ru.asb.dataset;
+
+import ru.asb.dataset.parsers.ListingTimestamp;
+import ru.asb.script.Scriptable;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Дата-сет только для чтения.
+ * Реализуется объектом {@link Dataset} и строкой колоночного хранилища {@link DatasetStore},
+ * поэтому фильтры, группы и скрипты работают с хранилищем без создания объектов Dataset.
+ * */
+public interface DatasetView extends CsvWriteable, Scriptable {
+    String getName();
+
+    String getExtension();
+
+    long size();
+
+    /**
+     * Дата последнего использования в секундах эпохи или {@link ListingTimestamp#NO_DATE}
+     * */
+    long getLastUsedEpoch();
+
+    String getDescriptorFolder();
+
+    List<String> getDataFolders();
+
+    Collection<Path> getPaths();
+
+    /**
+     * @return true if dataset doesn't have descriptor file; false if dataset has descriptor file.
+     * */
+    default boolean isOrphan() {
+        return getDescriptorFolder() == null;
+    }
+
+    default String getFullName() {
+        return getName() + getExtension();
+    }
+
+    default LocalDateTime getLastUsed() {
+        return ListingTimestamp.toDateTime(getLastUsedEpoch());
+    }
+
+    default List<String> getAllFolders() {
+        List<String> foldersList = getDataFolders();
+        String descriptorFolder = getDescriptorFolder();
+        if (descriptorFolder != null && !descriptorFolder.isEmpty())
+            foldersList.add(0, descriptorFolder);
+        return foldersList;
+    }
+
+    default boolean inFilter(List<String> filterList) {
+        String name = getName();
+        for (String filter : filterList) {
+            if (name.equals(filter))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Is dataset in filter set (hash lookup)
+     * */
+    default boolean inFilter(Set<String> filterSet) {
+        return filterSet.contains(getName());
+    }
+
+    /**
+     * Is dataset in Exceptions
+     * */
+    default boolean inExceptions(Collection<String> exceptions) {
+        String name = getName();
+        for (String regex : exceptions) {
+            if (Pattern.compile(regex, Pattern.CASE_INSENSITIVE).matcher(name).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check is dataset in Exceptions
+     * */
+    default boolean inExceptions(String[] exceptions) {
+        return inExceptions(Arrays.asList(exceptions));
+    }
+
+    /**
+     * Check is dataset expired
+     * */
+    default boolean isExpired(int validityPeriodInDays) {
+        return isExpired(validityPeriodInDays, ListingTimestamp.now());
+    }
+
+    /**
+     * Check is dataset expired relative to now (epoch seconds captured once per run).
+     * Dataset without last use date is never expired.
+     * */
+    default boolean isExpired(int validityPeriodInDays, long now) {
+        long lastUsed = getLastUsedEpoch();
+        return lastUsed != ListingTimestamp.NO_DATE && now - validityPeriodInDays * ListingTimestamp.SECONDS_PER_DAY > lastUsed;
+    }
+
+    /**
+     * Is dataset match the regex
+     * */
+    default boolean matches(String regex) {
+        return matches(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+    }
+
+    /**
+     * Is dataset match the pattern compiled once per run
+     * */
+    default boolean matches(Pattern pattern) {
+        return pattern.matcher(getFullName()).find();
+    }
+
+    @Override
+    default String getCsvHeader() {
+        return "\"Folders\";\"Name\";\"Size, mb\";\"Last use date\"";
+    }
+}
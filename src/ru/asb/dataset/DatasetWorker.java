@@ -4,10 +4,12 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.asb.dataset.collectors.Collector;
 import ru.asb.dataset.filters.Filter;
+import ru.asb.dataset.parsers.DatasetLineParser;
+import ru.asb.dataset.parsers.ParserConfig;
+import ru.asb.dataset.updaters.StagedListing;
 import ru.asb.dataset.updaters.Updater;
 
 import java.io.*;
-import java.lang.ref.SoftReference;
 import java.nio.file.*;
 import java.util.List;
 import java.util.*;
@@ -42,13 +44,79 @@ public class DatasetWorker {
 
         dsUpdater.update(dsLocalDir, dsServerDirs);
 
+        return getDatasetsFiles(localDir, dsServerDirs);
+    }
+
+    private Set<Path> getDatasetsFiles(Path localDir, String... dsServerDirs) {
         return Arrays.stream(dsServerDirs)
                 .filter(Objects::nonNull)
                 .filter(folderName -> !folderName.isEmpty())
-                .map(folderName -> localDir.resolve(folderName.substring(1, folderName.length() - 1) + ".txt"))
+                .map(folderName -> Updater.getDsFile(localDir, folderName))
                 .collect(Collectors.toSet());
     }
 
+    /**
+     * Обновляет файлы с информацией о дата-сетах и сразу собирает дата-сеты.
+     * Строки обновляемых листингов разбираются по мере получения, а собираются после успешной загрузки листинга
+     * (при ошибке загрузки собирается прежний файл листинга). Остальные файлы читаются после обновления.
+     * @param dsServerDirs - перечень папок с дата-сетами которые необходимо получить.
+     * */
+    public void updateAndCollectDatasets(boolean descriptor, String... dsServerDirs) throws IOException, InterruptedException {
+        assert (dsLocalDir != null);
+        assert (dsServerDirs != null);
+
+        Path localDir = Paths.get(dsLocalDir);
+        if (Files.notExists(localDir))
+            Files.createDirectories(localDir);
+
+        Set<Path> dsFiles = getDatasetsFiles(localDir, dsServerDirs);
+        String[] dirs = Arrays.stream(dsServerDirs).filter(Objects::nonNull).filter(folderName -> !folderName.isEmpty()).toArray(String[]::new);
+        Collection<Path> streamedFiles = dsUpdater.update(dsLocalDir, () -> new ParsedListing(descriptor), dirs);
+        dsFiles.removeAll(streamedFiles);
+        dsCollector.collectDatasets(existingFiles(dsFiles), descriptor);
+    }
+
+    /**
+     * Разобранные строки одного загружаемого листинга; передаются коллектору в порядке строк после загрузки
+     * */
+    private final class ParsedListing implements StagedListing {
+        private final DatasetLineParser parser = ParserConfig.get().newParser();
+        private final List<Dataset> datasets = new ArrayList<>();
+        private final boolean descriptor;
+
+        private ParsedListing(boolean descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        @Override
+        public void accept(CharSequence row) {
+            Dataset dataset = parser.parse(row, descriptor);
+            if (dataset != null && dataset.isCorrect())
+                datasets.add(dataset);
+        }
+
+        @Override
+        public void commit() {
+            for (Dataset dataset : datasets)
+                dsCollector.collectDataset(dataset);
+            datasets.clear();
+        }
+    }
+
+    /**
+     * Файлы листингов, которые есть на диске (листинг, который ни разу не удалось загрузить, пропускается)
+     * */
+    private static Collection<Path> existingFiles(Collection<Path> dsFiles) {
+        List<Path> existing = new ArrayList<>();
+        for (Path dsFile : dsFiles) {
+            if (Files.exists(dsFile))
+                existing.add(dsFile);
+            else
+                log.warn("Listing file {} is missing, skipped", dsFile.toString());
+        }
+        return existing;
+    }
+
 
     /**
      * Собирает датасеты из файлов с информацией о датасетах
@@ -61,34 +129,29 @@ public class DatasetWorker {
     /**
      * Собирает группы из списка дата-сетов
      * */
-    public List<Group> collectGroups(Collection<Dataset> datasets) throws InterruptedException {
+    public List<Group> collectGroups(Collection<? extends DatasetView> datasets) throws InterruptedException {
+        return collectGroups(datasets, false);
+    }
+
+    /**
+     * Собирает группы из списка дата-сетов за один проход; группы идут в порядке первого дата-сета.
+     * @param parallel - собирать группы в нескольких потоках, частичные результаты объединяются с сохранением порядка.
+     * */
+    public List<Group> collectGroups(Collection<? extends DatasetView> datasets, boolean parallel) throws InterruptedException {
         log.info("Collecting groups...");
-        List<Group> groupList = new ArrayList<>();
-        Map<String, SoftReference<Group>> groupMap = new HashMap<>();
+        GroupMap groupMap = new GroupMap();
         if (datasets != null) {
-            for (Dataset dataset : datasets) {
-                Group group = new Group(dataset);
-                SoftReference<Group> groupSoftReference = groupMap.get(group.getName());
-                if (groupSoftReference != null) {
-                    Group updatedGroup = groupSoftReference.get();
-                    if (updatedGroup != null) {
-                        updatedGroup.merge(group);
-                    }
-                } else {
-                    groupMap.put(group.getName(), new SoftReference<>(group));
+            if (parallel) {
+                groupMap = datasets.parallelStream().collect(GroupMap::new, GroupMap::add, GroupMap::combine);
+            } else {
+                for (DatasetView dataset : datasets) {
+                    groupMap.add(dataset);
+                    if (Thread.interrupted()) throw new InterruptedException();
                 }
-                if (Thread.interrupted()) throw new InterruptedException();
             }
         }
-        log.info("Groups count: {}", groupMap.values().size());
-
-        for (SoftReference<Group> reference : groupMap.values()) {
-            Group group = reference.get();
-            if (group != null) {
-                groupList.add(group);
-            }
-        }
-        return groupList;
+        log.info("Groups count: {}", groupMap.groups().size());
+        return new ArrayList<>(groupMap.groups());
     }
 
 //    /**
@@ -205,7 +268,21 @@ public class DatasetWorker {
         return this.dsCollector.getDatasets();
     }
 
+    /**
+     * Дата-сеты коллектора только для чтения, без копирования колоночного хранилища
+     * */
+    public Collection<? extends DatasetView> getDatasetViews() {
+        return this.dsCollector.getDatasetViews();
+    }
+
+    /**
+     * Сводные показатели коллектора без прохода по дата-сетам
+     * */
+    public DatasetStatistics getStatistics() {
+        return this.dsCollector.getStatistics();
+    }
+
     public Filter filter() {
-        return new Filter(getDatasets());
+        return new Filter(getDatasetViews());
     }
 }
@@ -6,44 +6,59 @@ import ru.asb.util.Unit;
 import ru.asb.util.Util;
 
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Класс Group группирует дата-сеты по названию, игнорирую изменяемые части такие как TASK_ID и LOADING_DT. То есть группирует по шаблону.
+ * Название группы выделяет {@link GroupNameScanner}. Размер, папки, номера задач и даты группы обновляются при добавлении дата-сета
+ * и хранятся в множествах примитивов, поэтому сортировка и вывод групп не проходят по дата-сетам.
  * */
 public class Group implements CsvWriteable, Comparable<Group>, Scriptable {
-    private static final Pattern groupPattern = Pattern.compile("(?:(.+?)(?:TASK(?:_)?ID(?:_)?(\\d+)))?(.+?)_?(\\d{4}-\\d{2}-\\d{2})?(_?REJ)?(?:[\\.|_]ds\\b)", Pattern.CASE_INSENSITIVE);
-    private final Set<LocalDate> dateSet;
-    private final Set<Integer> taskIdSet;
-    private final List<Dataset> datasetList;
-    private String name;
-
-    Group(Dataset dataset) {
-        this.dateSet = new HashSet<>();
-        this.taskIdSet = new HashSet<>();
-        this.datasetList = new ArrayList<>();
-
-        Matcher matcher = groupPattern.matcher(dataset.getFullName());
-        if (matcher.find()) {
-            StringBuilder groupNameStringBuilder = new StringBuilder();
-            if (matcher.group(1) != null) groupNameStringBuilder.append(matcher.group(1));
-            if (matcher.group(2) != null) {
-                groupNameStringBuilder.append("#TASK_ID#");
-                this.taskIdSet.add(Integer.parseInt(matcher.group(2)));
-            }
-            if (matcher.group(3) != null) groupNameStringBuilder.append(matcher.group(3));
-            if (matcher.group(4) != null) {
-                groupNameStringBuilder.append("_#LOADING_DT#");
-                this.dateSet.add(LocalDate.parse(matcher.group(4), DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH)));
-            }
-            if (matcher.group(5) != null) groupNameStringBuilder.append(matcher.group(5));
-        //    if (matcher.group(6) != null) extension = matcher.group(6);
-            this.name = groupNameStringBuilder.toString();
+    private final LongSet dateSet = new LongSet();
+    private final LongSet taskIdSet = new LongSet();
+    private final LongSet descriptorFolderSet = new LongSet();
+    private final LongSet dataFolderSet = new LongSet();
+    private final List<DatasetView> datasetList = new ArrayList<>();
+    private final String name;
+    private final boolean keepDatasets;
+    private long size = 0L;
+
+    Group(String name) {
+        this(name, true);
+    }
+
+    /**
+     * @param keepDatasets - хранить список дата-сетов группы; без него доступны только итоги группы (для отчета без удаления).
+     * */
+    Group(String name, boolean keepDatasets) {
+        this.name = name;
+        this.keepDatasets = keepDatasets;
+    }
+
+    /**
+     * Название группы дата-сета; дата-сет с именем не по шаблону образует группу со своим полным именем
+     * */
+    static String groupName(GroupNameScanner.Key key, DatasetView dataset) {
+        return key != null ? key.name : dataset.getFullName();
+    }
+
+    /**
+     * Добавляет дата-сет с разобранным именем в группу
+     * */
+    void add(DatasetView dataset, GroupNameScanner.Key key) {
+        if (key != null) {
+            if (key.taskId != GroupNameScanner.NO_TASK_ID)
+                taskIdSet.add(key.taskId);
+            if (key.epochDay != GroupNameScanner.NO_DATE)
+                dateSet.add(key.epochDay);
         }
-        this.datasetList.add(dataset);
+        String descriptorFolder = dataset.getDescriptorFolder();
+        descriptorFolderSet.add(descriptorFolder == null ? Dataset.NO_FOLDER : StringDictionary.FOLDERS.id(descriptorFolder));
+        for (String dataFolder : dataset.getDataFolders())
+            dataFolderSet.add(StringDictionary.FOLDERS.id(dataFolder));
+        size += dataset.size();
+        if (keepDatasets)
+            datasetList.add(dataset);
     }
 
     /**
@@ -53,36 +68,60 @@ public class Group implements CsvWriteable, Comparable<Group>, Scriptable {
         if (this.name.equals(group.name)) {
             this.taskIdSet.addAll(group.taskIdSet);
             this.dateSet.addAll(group.dateSet);
+            this.descriptorFolderSet.addAll(group.descriptorFolderSet);
+            this.dataFolderSet.addAll(group.dataFolderSet);
             this.datasetList.addAll(group.datasetList);
+            this.size += group.size;
         }
     }
 
     /**
-     * Return group size in determined Unit
+     * Размер группы в байтах
      * */
-    private long size() {
-        long _size = 0L;
-        for (Dataset dataset : datasetList) {
-            _size += dataset.size();
-        }
-        return _size;
+    public long size() {
+        return size;
     }
 
+    /**
+     * Папки дескрипторов (null - у группы есть сироты), затем отсортированные папки данных
+     * */
     public List<String> getFolders() {
-        Set<String> descriptorSet = new HashSet<>();
-        Set<String> folderSet = new HashSet<>();
-        for (Dataset dataset : datasetList) {
-            folderSet.addAll(dataset.getDataFolders());
-            descriptorSet.add(dataset.getDescriptorFolder());
+        List<String> descriptorFolders = folderNames(descriptorFolderSet);
+        List<String> folders = folderNames(dataFolderSet);
+        folders.addAll(0, descriptorFolders);
+        return folders;
+    }
+
+    private static List<String> folderNames(LongSet folderSet) {
+        List<String> folders = new ArrayList<>(folderSet.size());
+        boolean noFolder = false;
+        for (long folderId : folderSet.toSortedArray()) {
+            if (folderId == Dataset.NO_FOLDER)
+                noFolder = true;
+            else
+                folders.add(StringDictionary.FOLDERS.get((int) folderId));
         }
-        List<String> folders = new LinkedList<>(folderSet);
         Collections.sort(folders);
-        if (!descriptorSet.isEmpty())
-            folders.addAll(0, descriptorSet);
+        if (noFolder)
+            folders.add(null);
         return folders;
     }
 
-    public List<Dataset> getDatasets() {
+    public Set<Long> getTaskIds() {
+        Set<Long> taskIds = new LinkedHashSet<>();
+        for (long taskId : taskIdSet.toSortedArray())
+            taskIds.add(taskId);
+        return taskIds;
+    }
+
+    public Set<LocalDate> getDates() {
+        Set<LocalDate> dates = new LinkedHashSet<>();
+        for (long epochDay : dateSet.toSortedArray())
+            dates.add(LocalDate.ofEpochDay(epochDay));
+        return dates;
+    }
+
+    public List<DatasetView> getDatasets() {
         return datasetList;
     }
 
@@ -119,27 +158,36 @@ public class Group implements CsvWriteable, Comparable<Group>, Scriptable {
 
     @Override
     public String getCsvRow() {
-        String stringSize = String.format("%-10.3f", Util.size(size(), Unit.MEGABYTE));
-        return String.format("\"%s\";\"%s\";\"%s\";\"%s\";\"%s\"", this.getFolders().toString(), name, dateSet.toString(), taskIdSet.toString(), stringSize);
+        String stringSize = String.format("%-10.3f", Util.size(size, Unit.MEGABYTE));
+        return String.format("\"%s\";\"%s\";\"%s\";\"%s\";\"%s\"", this.getFolders().toString(), name, getDates().toString(), getTaskIds().toString(), stringSize);
     }
 
     @Override
     public int compareTo(Group anotherGroup) {
-        long diff = this.size() - anotherGroup.size();
+        int diff = Long.compare(this.size, anotherGroup.size);
         if (diff == 0) {
            return this.name.compareTo(anotherGroup.name);
         }
-        return (int)diff;
+        return diff;
     }
 
     @Override
     public Collection<String> getScriptRows(String prefix, String postfix) {
         Collection<String> rows = new ArrayList<>();
-        for (Dataset dataset : datasetList) {
+        for (DatasetView dataset : datasetList) {
             rows.addAll(dataset.getScriptRows(prefix, postfix));
         }
         return rows;
     }
+
+    @Override
+    public Collection<String> getScriptPaths() {
+        Collection<String> paths = new ArrayList<>();
+        for (DatasetView dataset : datasetList) {
+            paths.addAll(dataset.getScriptPaths());
+        }
+        return paths;
+    }
 }
 
 
@@ -0,0 +1,42 @@
+package ru.asb.dataset;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Группы по названию в порядке первого дата-сета
+ * */
+final class GroupMap {
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+    private final boolean keepDatasets;
+
+    GroupMap() {
+        this(true);
+    }
+
+    GroupMap(boolean keepDatasets) {
+        this.keepDatasets = keepDatasets;
+    }
+
+    void add(DatasetView dataset) {
+        GroupNameScanner.Key key = GroupNameScanner.scan(dataset.getFullName());
+        groups.computeIfAbsent(Group.groupName(key, dataset), name -> new Group(name, keepDatasets)).add(dataset, key);
+    }
+
+    /**
+     * Добавляет группы следующей части потока
+     * */
+    GroupMap combine(GroupMap groupMap) {
+        for (Group group : groupMap.groups.values()) {
+            Group updatedGroup = groups.putIfAbsent(group.getName(), group);
+            if (updatedGroup != null)
+                updatedGroup.merge(group);
+        }
+        return this;
+    }
+
+    Collection<Group> groups() {
+        return groups.values();
+    }
+}
@@ -0,0 +1,211 @@
+package ru.asb.dataset;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Выделение названия группы из полного имени дата-сета за линейное время.
+ * Результат совпадает с поиском по выражению
+ * <pre>
+ * (?:(.+?)(?:TASK(?:_)?ID(?:_)?(\d+)))?(.+?)_?(\d{4}-\d{2}-\d{2})?(_?REJ)?(?:[\.|_]ds\b)
+ * </pre>
+ * без учета регистра: для каждой позиции заранее вычисляется, совпадает ли с нее окончание выражения
+ * (_?ДАТА?(_?REJ)?[.|_]ds\b) и ближайшая следующая такая позиция, поэтому перебор ленивых групп не требует возвратов.
+ * */
+final class GroupNameScanner {
+    static final String TASK_ID = "#TASK_ID#";
+    static final String LOADING_DT = "_#LOADING_DT#";
+    static final long NO_TASK_ID = -1L;
+    static final long NO_DATE = Long.MIN_VALUE;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH);
+    private static final int DATE_LENGTH = 10;
+
+    //Вариант совпадения окончания: подчеркивание перед датой, дата, длина REJ-части (0, 3 или 4)
+    private static final int TAIL_UNDERSCORE = 1;
+    private static final int TAIL_DATE = 2;
+    private static final int TAIL_REJ_SHIFT = 2;
+
+    private GroupNameScanner() {
+    }
+
+    /**
+     * Название группы и изменяемые части имени
+     * */
+    static final class Key {
+        final String name;
+        final long taskId;
+        final long epochDay;
+
+        private Key(String name, long taskId, long epochDay) {
+            this.name = name;
+            this.taskId = taskId;
+            this.epochDay = epochDay;
+        }
+    }
+
+    /**
+     * @return название группы или null, если имя не подходит под шаблон.
+     * */
+    static Key scan(String fullName) {
+        int length = fullName.length();
+        int[] tails = new int[length + 1];
+        int[] nextTail = new int[length + 2];
+        nextTail[length + 1] = -1;
+        for (int p = length; p >= 0; p--) {
+            tails[p] = tail(fullName, p);
+            nextTail[p] = tails[p] >= 0 ? p : nextTail[p + 1];
+        }
+
+        //(.+?)TASK_?ID_?(\d+) - самая короткая первая часть, самый длинный номер, при котором совпадает остаток
+        for (int i = 1; i < length; i++) {
+            int digitsStart = taskIdDigits(fullName, i);
+            if (digitsStart < 0)
+                continue;
+            int digitsEnd = digitsStart;
+            while (digitsEnd < length && isDigit(fullName.charAt(digitsEnd)))
+                digitsEnd++;
+            for (int end = digitsEnd; end > digitsStart; end--) {
+                int tailStart = end + 1 <= length ? nextTail[end + 1] : -1;
+                if (tailStart >= 0) {
+                    String taskId = fullName.substring(digitsStart, end);
+                    StringBuilder name = new StringBuilder(fullName.substring(0, i)).append(TASK_ID).append(fullName, end, tailStart);
+                    return key(fullName, name, tailStart, tails[tailStart], parseTaskId(taskId));
+                }
+            }
+        }
+        int tailStart = length >= 1 ? nextTail[1] : -1;
+        if (tailStart < 0)
+            return null;
+        return key(fullName, new StringBuilder(fullName.substring(0, tailStart)), tailStart, tails[tailStart], NO_TASK_ID);
+    }
+
+    private static Key key(String fullName, StringBuilder name, int tailStart, int tail, long taskId) {
+        int position = tailStart + ((tail & TAIL_UNDERSCORE) != 0 ? 1 : 0);
+        long epochDay = NO_DATE;
+        if ((tail & TAIL_DATE) != 0) {
+            name.append(LOADING_DT);
+            epochDay = parseDate(fullName, position);
+            position += DATE_LENGTH;
+        }
+        int rejLength = tail >>> TAIL_REJ_SHIFT;
+        if (rejLength > 0)
+            name.append(fullName, position, position + rejLength);
+        return new Key(name.toString(), taskId, epochDay);
+    }
+
+    /**
+     * Начало номера после TASK_?ID_? в позиции i или -1
+     * */
+    private static int taskIdDigits(String s, int i) {
+        if (!matchesIgnoreCase(s, i, "TASK"))
+            return -1;
+        int position = i + 4;
+        if (position < s.length() && s.charAt(position) == '_')
+            position++;
+        if (!matchesIgnoreCase(s, position, "ID"))
+            return -1;
+        position += 2;
+        if (position < s.length() && s.charAt(position) == '_')
+            position++;
+        return position < s.length() && isDigit(s.charAt(position)) ? position : -1;
+    }
+
+    /**
+     * Окончание _?(\d{4}-\d{2}-\d{2})?(_?REJ)?[.|_]ds\b с позиции p в порядке перебора вариантов выражения или -1
+     * */
+    private static int tail(String s, int p) {
+        for (int underscore = p < s.length() && s.charAt(p) == '_' ? 1 : 0; underscore >= 0; underscore--) {
+            int datePosition = p + underscore;
+            for (int date = isDate(s, datePosition) ? 1 : 0; date >= 0; date--) {
+                int rejPosition = datePosition + date * DATE_LENGTH;
+                int[] rejLengths = {4, 3, 0};
+                for (int rejLength : rejLengths) {
+                    if (rejLength == 4 && !(rejPosition < s.length() && s.charAt(rejPosition) == '_' && matchesIgnoreCase(s, rejPosition + 1, "REJ")))
+                        continue;
+                    if (rejLength == 3 && !matchesIgnoreCase(s, rejPosition, "REJ"))
+                        continue;
+                    if (isDsExtension(s, rejPosition + rejLength))
+                        return underscore * TAIL_UNDERSCORE | date * TAIL_DATE | rejLength << TAIL_REJ_SHIFT;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * [.|_]ds\b
+     * */
+    private static boolean isDsExtension(String s, int position) {
+        if (position + 3 > s.length())
+            return false;
+        char separator = s.charAt(position);
+        if (separator != '.' && separator != '|' && separator != '_')
+            return false;
+        if (!matchesIgnoreCase(s, position + 1, "DS"))
+            return false;
+        return position + 3 == s.length() || !isWordChar(s.charAt(position + 3));
+    }
+
+    private static boolean isDate(String s, int position) {
+        if (position + DATE_LENGTH > s.length())
+            return false;
+        for (int i = 0; i < DATE_LENGTH; i++) {
+            char c = s.charAt(position + i);
+            if (i == 4 || i == 7 ? c != '-' : !isDigit(c))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * День эпохи для даты yyyy-MM-dd или {@link #NO_DATE}, если дата некорректна
+     * */
+    private static long parseDate(String s, int position) {
+        int year = Integer.parseInt(s.substring(position, position + 4));
+        int month = Integer.parseInt(s.substring(position + 5, position + 7));
+        int day = Integer.parseInt(s.substring(position + 8, position + 10));
+        try {
+            if (month >= 1 && month <= 12 && day >= 1 && day <= 28)
+                return LocalDate.of(year, month, day).toEpochDay();
+            return LocalDate.parse(s.substring(position, position + DATE_LENGTH), DATE_FORMATTER).toEpochDay();
+        } catch (DateTimeException dte) {
+            return NO_DATE;
+        }
+    }
+
+    private static long parseTaskId(String digits) {
+        try {
+            return Long.parseLong(digits);
+        } catch (NumberFormatException nfe) {
+            return NO_TASK_ID;
+        }
+    }
+
+    /**
+     * Сравнение с образцом из заглавных латинских букв без учета регистра только для ASCII, как Pattern.CASE_INSENSITIVE
+     * */
+    private static boolean matchesIgnoreCase(String s, int position, String upperCase) {
+        if (position < 0 || position + upperCase.length() > s.length())
+            return false;
+        for (int i = 0; i < upperCase.length(); i++) {
+            char c = s.charAt(position + i);
+            char expected = upperCase.charAt(i);
+            if (c != expected && c != expected + ('a' - 'A'))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Символ слова для \b в java.util.regex
+     * */
+    private static boolean isWordChar(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+}
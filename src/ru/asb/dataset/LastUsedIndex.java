@@ -0,0 +1,170 @@
+package ru.asb.dataset;
+
+import ru.asb.dataset.parsers.ListingTimestamp;
+import ru.asb.util.Unit;
+import ru.asb.util.Util;
+
+import java.util.*;
+
+/**
+ * Индекс дата-сетов по дате последнего использования.
+ * Даты отсортированы вместе с позициями дата-сетов и накопленными размерами, поэтому просроченные дата-сеты
+ * находятся двоичным поиском, а количество и объем просроченных дата-сетов для каждого срока хранения
+ * считаются одним проходом по индексу. Дата-сеты без даты использования не попадают в индекс (они никогда не просрочены).
+ * */
+public class LastUsedIndex {
+    private final List<DatasetView> datasets;
+    private final long[] lastUsed;
+    private final int[] positions;
+    private final long[] sizeBefore;
+
+    private LastUsedIndex(List<DatasetView> datasets, long[] lastUsed, int[] positions, long[] sizeBefore) {
+        this.datasets = datasets;
+        this.lastUsed = lastUsed;
+        this.positions = positions;
+        this.sizeBefore = sizeBefore;
+    }
+
+    public static LastUsedIndex build(Collection<? extends DatasetView> datasetList) {
+        List<DatasetView> datasets = new ArrayList<>(datasetList);
+        int[] positions = new int[datasets.size()];
+        long[] lastUsed = new long[datasets.size()];
+        int dated = 0;
+        boolean packed = true;
+        for (int i = 0; i < datasets.size(); i++) {
+            long epoch = datasets.get(i).getLastUsedEpoch();
+            if (epoch != ListingTimestamp.NO_DATE) {
+                positions[dated] = i;
+                lastUsed[dated++] = epoch;
+                if (epoch < 0 || epoch > 0xFFFFFFFFL)
+                    packed = false;
+            }
+        }
+        positions = Arrays.copyOf(positions, dated);
+        lastUsed = Arrays.copyOf(lastUsed, dated);
+        //Пары (дата, позиция) сортируются как long без создания объектов, если дата помещается в 32 бита
+        if (packed) {
+            long[] keys = new long[dated];
+            for (int j = 0; j < dated; j++)
+                keys[j] = lastUsed[j] << 32 | positions[j];
+            Arrays.sort(keys);
+            for (int j = 0; j < dated; j++) {
+                lastUsed[j] = keys[j] >>> 32;
+                positions[j] = (int) keys[j];
+            }
+        } else {
+            Integer[] order = new Integer[dated];
+            for (int j = 0; j < dated; j++)
+                order[j] = j;
+            final long[] epochs = lastUsed;
+            Arrays.sort(order, Comparator.comparingLong(j -> epochs[j]));
+            int[] sortedPositions = new int[dated];
+            long[] sortedLastUsed = new long[dated];
+            for (int j = 0; j < dated; j++) {
+                sortedPositions[j] = positions[order[j]];
+                sortedLastUsed[j] = epochs[order[j]];
+            }
+            positions = sortedPositions;
+            lastUsed = sortedLastUsed;
+        }
+        long[] sizeBefore = new long[dated + 1];
+        for (int j = 0; j < dated; j++)
+            sizeBefore[j + 1] = sizeBefore[j] + datasets.get(positions[j]).size();
+        return new LastUsedIndex(datasets, lastUsed, positions, sizeBefore);
+    }
+
+    /**
+     * Все дата-сеты индекса в исходном порядке
+     * */
+    public List<DatasetView> getDatasets() {
+        return Collections.unmodifiableList(datasets);
+    }
+
+    /**
+     * Количество дата-сетов с датой использования раньше threshold
+     * */
+    public int countOlderThan(long threshold) {
+        int from = 0;
+        int to = lastUsed.length;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (lastUsed[middle] < threshold)
+                from = middle + 1;
+            else
+                to = middle;
+        }
+        return from;
+    }
+
+    /**
+     * Дата-сеты с датой использования раньше threshold в исходном порядке
+     * */
+    public List<DatasetView> olderThan(long threshold) {
+        int count = countOlderThan(threshold);
+        int[] range = Arrays.copyOf(positions, count);
+        Arrays.sort(range);
+        List<DatasetView> result = new ArrayList<>(count);
+        for (int position : range)
+            result.add(datasets.get(position));
+        return result;
+    }
+
+    /**
+     * Дата-сеты, просроченные при сроке хранения days (как {@link DatasetView#isExpired(int, long)})
+     * */
+    public List<DatasetView> expired(int days, long now) {
+        return olderThan(now - days * ListingTimestamp.SECONDS_PER_DAY);
+    }
+
+    /**
+     * Количество и объем просроченных дата-сетов для каждого срока хранения от 0 до maxDays дней за один проход
+     * */
+    public List<Reclaimable> reclaimable(int maxDays, long now) {
+        Reclaimable[] curve = new Reclaimable[maxDays + 1];
+        int count = 0;
+        for (int days = maxDays; days >= 0; days--) {
+            long threshold = now - days * ListingTimestamp.SECONDS_PER_DAY;
+            while (count < lastUsed.length && lastUsed[count] < threshold)
+                count++;
+            curve[days] = new Reclaimable(days, count, sizeBefore[count]);
+        }
+        return Arrays.asList(curve);
+    }
+
+    /**
+     * Точка кривой: срок хранения, количество и объем дата-сетов, которые будут удалены при этом сроке
+     * */
+    public static class Reclaimable implements CsvWriteable {
+        private final int days;
+        private final int count;
+        private final long size;
+
+        Reclaimable(int days, int count, long size) {
+            this.days = days;
+            this.count = count;
+            this.size = size;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        @Override
+        public String getCsvRow() {
+            return String.format("\"%d\";\"%d\";\"%-10.3f\"", days, count, Util.size(size, Unit.MEGABYTE));
+        }
+
+        @Override
+        public String getCsvHeader() {
+            return "\"Validity period, days\";\"Count\";\"Size, mb\"";
+        }
+    }
+}
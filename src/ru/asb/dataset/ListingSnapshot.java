@@ -0,0 +1,397 @@
+package ru.asb.dataset;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.asb.dataset.parsers.ParserConfig;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Двоичный снимок разобранного файла листинга (.dsidx рядом с файлом листинга).
+ * Снимок действителен, пока у файла листинга не изменились размер и дата изменения,
+ * а также роль файла (дескрипторы или данные) и настройки парсера.
+ * Повторный запуск с другими фильтрами читает снимок через отображение в память без разбора строк.
+ * Формат: заголовок, затем записи - строка таблицы (папка, суффикс, расширение) или дата-сет со ссылками на строки,
+ * в конце - маркер окончания с количеством дата-сетов и CRC32 всех предыдущих байт.
+ * */
+public final class ListingSnapshot {
+    private static final Logger log = LogManager.getLogger(ListingSnapshot.class);
+    public static final String EXTENSION = ".dsidx";
+
+    private static final int MAGIC = 0x44534958;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int TRAILER_SIZE = 17;
+    private static final int CHECKSUM_BUFFER_SIZE = 1 << 20;
+    private static final byte TAG_END = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_DATASET = 2;
+    private static final int NO_STRING = -1;
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private ListingSnapshot() {
+    }
+
+    /**
+     * Файл снимка для файла листинга
+     * */
+    public static Path snapshotFile(Path listing) {
+        return listing.resolveSibling(listing.getFileName().toString() + EXTENSION);
+    }
+
+    /**
+     * Передает дата-сеты снимка получателю, если снимок действителен.
+     * Сначала проверяются заголовок, маркер окончания и контрольная сумма CRC32 всего снимка (чтение в буфер в куче),
+     * затем записи передаются получателю потоком, без промежуточного списка. Поврежденный снимок получатель не видит.
+     * Заголовок и маркер окончания не отображаются в память: отображение устаревшего снимка
+     * помешало бы заменить его новым (в Windows отображенный файл нельзя переместить поверх).
+     * @return false - снимка нет, он устарел или поврежден, листинг нужно разобрать.
+     * @throws IOException ошибка чтения после успешной проверки, когда часть дата-сетов уже передана.
+     * */
+    public static boolean load(Path listing, boolean descriptor, Consumer<Dataset> consumer) throws IOException {
+        Path snapshot = snapshotFile(listing);
+        if (Files.notExists(snapshot) || Files.notExists(listing))
+            return false;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long expectedCount;
+            long fileSize;
+            try {
+                fileSize = channel.size();
+                if (fileSize < HEADER_SIZE + TRAILER_SIZE)
+                    return false;
+                ByteBuffer header = read(channel, 0, HEADER_SIZE);
+                if (!header.equals(header(listing, descriptor)))
+                    return false;
+                ByteBuffer trailer = read(channel, fileSize - TRAILER_SIZE, TRAILER_SIZE);
+                if (trailer.get() != TAG_END)
+                    return false;
+                expectedCount = trailer.getLong();
+                if (checksum(channel, fileSize - Long.BYTES) != trailer.getLong())
+                    throw new IOException("Checksum mismatch");
+            } catch (IOException | RuntimeException e) {
+                log.warn("Snapshot {} is ignored, listing will be parsed: {}", snapshot.toString(), e.toString());
+                return false;
+            }
+
+            log.info("Loading datasets from snapshot {}", snapshot.toString());
+            long count;
+            try {
+                count = new SnapshotReader(channel, fileSize - TRAILER_SIZE).read(consumer);
+            } catch (RuntimeException e) {
+                throw new IOException("Error reading snapshot " + snapshot, e);
+            }
+            if (count != expectedCount)
+                throw new IOException("Corrupted snapshot " + snapshot + ": " + count + " of " + expectedCount + " datasets");
+            return true;
+        }
+    }
+
+    /**
+     * CRC32 первых length байт снимка
+     * */
+    private static long checksum(FileChannel channel, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - position));
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException("Unexpected end of snapshot at " + position);
+            crc.update(buffer.array(), 0, read);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of snapshot at " + (position + buffer.position()));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Создает запись снимка. Размер и дата изменения листинга фиксируются сейчас,
+     * поэтому листинг не должен изменяться во время разбора.
+     * Снимок - необязательное ускорение: ошибки записи только логируются.
+     * @return null - временный файл снимка создать не удалось.
+     * */
+    public static Writer writer(Path listing, boolean descriptor) {
+        try {
+            return new Writer(listing, descriptor);
+        } catch (IOException e) {
+            log.warn("Snapshot of {} is not saved: {}", listing.toString(), e.toString());
+            return null;
+        }
+    }
+
+    private static ByteBuffer header(Path listing, boolean descriptor) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putLong(Files.size(listing));
+        header.putLong(Files.getLastModifiedTime(listing).toMillis());
+        header.putInt(ParserConfig.get().getSignature().hashCode());
+        header.put((byte) (descriptor ? 1 : 0));
+        header.rewind();
+        return header;
+    }
+
+    /**
+     * Запись снимка во временный файл; снимок заменяется только после {@link #commit()}.
+     * Потокобезопасна: записывать дата-сеты можно из нескольких потоков разбора.
+     * После первой ошибки ввода-вывода временный файл удаляется, а дальнейшие вызовы ничего не делают.
+     * */
+    public static final class Writer implements Closeable {
+        private final Path snapshot;
+        private final Path tempFile;
+        private final DataOutputStream output;
+        private final CRC32 crc = new CRC32();
+        private final Map<String, Integer> extensionIds = new HashMap<>();
+        private int[] folderIds = new int[0];
+        private int[] invocationIds = new int[0];
+        private int stringsCount = 0;
+        private long count = 0;
+        private boolean committed = false;
+        private boolean failed = false;
+
+        private Writer(Path listing, boolean descriptor) throws IOException {
+            this.snapshot = snapshotFile(listing);
+            this.tempFile = snapshot.resolveSibling(snapshot.getFileName().toString() + ".tmp");
+            ByteBuffer header = header(listing, descriptor);
+            this.output = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16), crc));
+            try {
+                this.output.write(header.array());
+            } catch (IOException e) {
+                discard();
+                throw e;
+            }
+        }
+
+        public synchronized void write(Dataset dataset) {
+            if (failed)
+                return;
+            try {
+                writeDataset(dataset);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void writeDataset(Dataset dataset) throws IOException {
+            int extension = extensionId(dataset.getExtension());
+            int descriptorFolder = dataset.getDescriptorFolderId() == Dataset.NO_FOLDER ? NO_STRING : folderId(dataset.getDescriptorFolderId());
+            long[] dataFiles = dataset.getDataFiles();
+            int[] dataFileStrings = new int[dataFiles.length * 2];
+            for (int i = 0; i < dataFiles.length; i++) {
+                dataFileStrings[i * 2] = folderId((int) (dataFiles[i] >>> 32));
+                dataFileStrings[i * 2 + 1] = invocationId((int) dataFiles[i]);
+            }
+
+            output.writeByte(TAG_DATASET);
+            writeString(dataset.getName());
+            output.writeInt(extension);
+            output.writeLong(dataset.size());
+            output.writeLong(dataset.getLastUsedEpoch());
+            output.writeInt(descriptorFolder);
+            output.writeInt(dataFiles.length);
+            for (int stringId : dataFileStrings)
+                output.writeInt(stringId);
+            count++;
+        }
+
+        /**
+         * Дописывает маркер окончания и заменяет прежний снимок
+         * */
+        public synchronized void commit() {
+            if (failed)
+                return;
+            try {
+                output.writeByte(TAG_END);
+                output.writeLong(count);
+                output.writeLong(crc.getValue());
+                output.close();
+                Files.move(tempFile, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                committed = true;
+                log.info("Snapshot {} saved: {} datasets", snapshot.toString(), count);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!committed)
+                discard();
+        }
+
+        private void fail(IOException e) {
+            log.warn("Snapshot {} is not saved: {}", snapshot.toString(), e.toString());
+            failed = true;
+            discard();
+        }
+
+        private void discard() {
+            try {
+                output.close();
+            } catch (IOException ignored) {
+            }
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                log.warn("Error deleting temporary snapshot {}: {}", tempFile.toString(), e.toString());
+            }
+        }
+
+        private int extensionId(String extension) throws IOException {
+            if (extension == null)
+                return NO_STRING;
+            Integer id = extensionIds.get(extension);
+            if (id == null) {
+                id = defineString(extension);
+                extensionIds.put(extension, id);
+            }
+            return id;
+        }
+
+        private int folderId(int dictionaryId) throws IOException {
+            if (dictionaryId >= folderIds.length)
+                folderIds = Arrays.copyOf(folderIds, Math.max(dictionaryId + 1, folderIds.length * 2));
+            if (folderIds[dictionaryId] == 0)
+                folderIds[dictionaryId] = defineString(StringDictionary.FOLDERS.get(dictionaryId)) + 1;
+            return folderIds[dictionaryId] - 1;
+        }
+
+        private int invocationId(int dictionaryId) throws IOException {
+            if (dictionaryId >= invocationIds.length)
+                invocationIds = Arrays.copyOf(invocationIds, Math.max(dictionaryId + 1, invocationIds.length * 2));
+            if (invocationIds[dictionaryId] == 0)
+                invocationIds[dictionaryId] = defineString(StringDictionary.INVOCATIONS.get(dictionaryId)) + 1;
+            return invocationIds[dictionaryId] - 1;
+        }
+
+        private int defineString(String value) throws IOException {
+            output.writeByte(TAG_STRING);
+            writeString(value);
+            return stringsCount++;
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Чтение записей снимка окнами, отображенными в память
+     * */
+    private static final class SnapshotReader {
+        private final FileChannel channel;
+        private final long end;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private byte[] stringBytes = new byte[256];
+
+        private final List<String> strings = new ArrayList<>();
+        private int[] folderIds = new int[0];
+        private int[] invocationIds = new int[0];
+
+        private SnapshotReader(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+        }
+
+        private long read(Consumer<Dataset> consumer) throws IOException {
+            long count = 0;
+            long position = HEADER_SIZE;
+            map(position);
+            while (position() < end) {
+                ensure(1);
+                byte tag = window.get();
+                if (tag == TAG_STRING) {
+                    strings.add(readString());
+                } else if (tag == TAG_DATASET) {
+                    String name = readString();
+                    ensure(28);
+                    int extension = window.getInt();
+                    long size = window.getLong();
+                    long lastUsed = window.getLong();
+                    int descriptorFolder = window.getInt();
+                    int filesCount = window.getInt();
+                    long[] dataFiles = new long[filesCount];
+                    ensure(filesCount * 8L);
+                    for (int i = 0; i < filesCount; i++)
+                        dataFiles[i] = Dataset.dataFile(folderId(window.getInt()), invocationId(window.getInt()));
+                    consumer.accept(new Dataset(name, extension == NO_STRING ? null : strings.get(extension), size, lastUsed,
+                            descriptorFolder == NO_STRING ? Dataset.NO_FOLDER : folderId(descriptorFolder), dataFiles));
+                    count++;
+                } else {
+                    throw new IOException("Unknown snapshot record " + tag + " at " + (position() - 1));
+                }
+            }
+            return count;
+        }
+
+        private long position() {
+            return windowStart + window.position();
+        }
+
+        private void map(long position) throws IOException {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, end - position));
+        }
+
+        /**
+         * Переотображает окно, если в нем не хватает байт для следующего значения
+         * */
+        private void ensure(long bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long position = position();
+                if (position + bytes > end)
+                    throw new EOFException("Unexpected end of snapshot at " + position);
+                map(position);
+            }
+        }
+
+        private String readString() throws IOException {
+            ensure(4);
+            int length = window.getInt();
+            if (length > stringBytes.length)
+                stringBytes = new byte[Math.max(length, stringBytes.length * 2)];
+            ensure(length);
+            window.get(stringBytes, 0, length);
+            return new String(stringBytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int folderId(int stringId) {
+            if (stringId >= folderIds.length)
+                folderIds = Arrays.copyOf(folderIds, Math.max(stringId + 1, strings.size()));
+            if (folderIds[stringId] == 0)
+                folderIds[stringId] = StringDictionary.FOLDERS.id(strings.get(stringId)) + 1;
+            return folderIds[stringId] - 1;
+        }
+
+        private int invocationId(int stringId) {
+            if (stringId >= invocationIds.length)
+                invocationIds = Arrays.copyOf(invocationIds, Math.max(stringId + 1, strings.size()));
+            if (invocationIds[stringId] == 0)
+                invocationIds[stringId] = StringDictionary.INVOCATIONS.id(strings.get(stringId)) + 1;
+            return invocationIds[stringId] - 1;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ru.asb.dataset;
+
+import java.util.Arrays;
+
+/**
+ * Множество чисел long с открытой адресацией, без упаковки в объекты
+ * */
+final class LongSet {
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] table = newTable(8);
+    private int size = 0;
+    private boolean containsEmpty = false;
+
+    void add(long value) {
+        if (value == EMPTY) {
+            if (!containsEmpty) {
+                containsEmpty = true;
+                size++;
+            }
+            return;
+        }
+        if ((size + 1) * 2 > table.length)
+            resize();
+        if (insert(table, value))
+            size++;
+    }
+
+    void addAll(LongSet set) {
+        if (set.containsEmpty)
+            add(EMPTY);
+        for (long value : set.table) {
+            if (value != EMPTY)
+                add(value);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Значения по возрастанию
+     * */
+    long[] toSortedArray() {
+        long[] values = new long[size];
+        int i = 0;
+        if (containsEmpty)
+            values[i++] = EMPTY;
+        for (long value : table) {
+            if (value != EMPTY)
+                values[i++] = value;
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    private static long[] newTable(int capacity) {
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int slot = (int) ((value * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (table[slot] != EMPTY) {
+            if (table[slot] == value)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = value;
+        return true;
+    }
+
+    private void resize() {
+        long[] newTable = newTable(table.length * 2);
+        for (long value : table) {
+            if (value != EMPTY)
+                insert(newTable, value);
+        }
+        table = newTable;
+    }
+}
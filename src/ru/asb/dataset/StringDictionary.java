@@ -0,0 +1,54 @@
+package ru.asb.dataset;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Словарь строк запуска: каждой уникальной строке соответствует целочисленный идентификатор.
+ * Папки и суффиксы файлов дата-сетов повторяются у миллионов дата-сетов, поэтому дата-сет хранит только идентификаторы.
+ * Потокобезопасен; идентификаторы не удаляются до конца работы программы.
+ * */
+public final class StringDictionary {
+    public static final StringDictionary FOLDERS = new StringDictionary();
+    public static final StringDictionary INVOCATIONS = new StringDictionary();
+
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[1024];
+    private int size = 0;
+
+    /**
+     * Идентификатор строки; строка добавляется в словарь, если ее еще нет
+     * */
+    public int id(String value) {
+        Integer id = ids.get(value);
+        if (id != null)
+            return id;
+        synchronized (this) {
+            id = ids.get(value);
+            if (id == null) {
+                String[] current = values;
+                if (size == current.length) {
+                    String[] grown = new String[current.length * 2];
+                    System.arraycopy(current, 0, grown, 0, size);
+                    current = grown;
+                }
+                current[size] = value;
+                values = current;
+                id = size++;
+                ids.put(value, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Строка по идентификатору
+     * */
+    public String get(int id) {
+        return values[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -0,0 +1,83 @@
+package ru.asb.dataset;
+
+import java.util.*;
+import java.util.function.ToLongFunction;
+
+/**
+ * K самых больших элементов по размеру: ограниченная куча с минимальным элементом в вершине.
+ * Память пропорциональна K; количество и размер остальных элементов ("все остальное") считаются по итогам.
+ * При параллельном сборе частичные результаты объединяются {@link #combine(TopK)}.
+ * */
+public class TopK<T> {
+    private final int k;
+    private final ToLongFunction<? super T> size;
+    private final PriorityQueue<T> heap;
+    private long count = 0L;
+    private long totalSize = 0L;
+
+    public TopK(int k, ToLongFunction<? super T> size) {
+        if (k <= 0)
+            throw new IllegalArgumentException("K must be positive: " + k);
+        this.k = k;
+        this.size = size;
+        this.heap = new PriorityQueue<>(k, Comparator.comparingLong(size));
+    }
+
+    public void add(T element) {
+        long elementSize = size.applyAsLong(element);
+        count++;
+        totalSize += elementSize;
+        offer(element, elementSize);
+    }
+
+    /**
+     * Добавляет результат другой части
+     * */
+    public TopK<T> combine(TopK<T> topK) {
+        count += topK.count;
+        totalSize += topK.totalSize;
+        for (T element : topK.heap)
+            offer(element, size.applyAsLong(element));
+        return this;
+    }
+
+    private void offer(T element, long elementSize) {
+        if (heap.size() < k) {
+            heap.add(element);
+        } else if (elementSize > size.applyAsLong(heap.peek())) {
+            heap.poll();
+            heap.add(element);
+        }
+    }
+
+    /**
+     * Самые большие элементы по убыванию размера
+     * */
+    public List<T> getTop() {
+        List<T> top = new ArrayList<>(heap);
+        top.sort(Comparator.comparingLong(size).reversed());
+        return top;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /**
+     * Количество элементов, не попавших в K самых больших
+     * */
+    public long getRestCount() {
+        return count - heap.size();
+    }
+
+    public long getRestSize() {
+        long topSize = 0L;
+        for (T element : heap)
+            topSize += size.applyAsLong(element);
+        return totalSize - topSize;
+    }
+}
@@ -0,0 +1,73 @@
+package ru.asb.dataset;
+
+import ru.asb.util.Unit;
+import ru.asb.util.Util;
+
+import java.util.List;
+
+/**
+ * Быстрый отчет: K самых больших дата-сетов и групп и итоги по остальным.
+ * Собирается за один проход фильтрации; дата-сеты хранятся только в ограниченной куче,
+ * у групп хранятся только итоги (без списков дата-сетов).
+ * */
+public class TopReport {
+    private final int k;
+    private final TopK<DatasetView> datasets;
+    private final GroupMap groupMap = new GroupMap(false);
+    private TopK<Group> groups = null;
+
+    public TopReport(int k) {
+        this.k = k;
+        this.datasets = new TopK<>(k, DatasetView::size);
+    }
+
+    public void add(DatasetView dataset) {
+        datasets.add(dataset);
+        groupMap.add(dataset);
+    }
+
+    /**
+     * Добавляет результат следующей части потока
+     * */
+    public TopReport combine(TopReport report) {
+        datasets.combine(report.datasets);
+        groupMap.combine(report.groupMap);
+        return this;
+    }
+
+    public TopK<DatasetView> getDatasets() {
+        return datasets;
+    }
+
+    public TopK<Group> getGroups() {
+        if (groups == null) {
+            groups = new TopK<>(k, Group::size);
+            for (Group group : groupMap.groups())
+                groups.add(group);
+        }
+        return groups;
+    }
+
+    public List<DatasetView> getTopDatasets() {
+        return datasets.getTop();
+    }
+
+    public List<Group> getTopGroups() {
+        return getGroups().getTop();
+    }
+
+    /**
+     * Строка CSV с итогами по дата-сетам, не попавшим в отчет (в колонках {@link DatasetView#getCsvHeader()})
+     * */
+    public String getDatasetsRestCsvRow() {
+        return String.format("\"[]\";\"Everything else: %d datasets\";\"%-10.3f\";\"\"", datasets.getRestCount(), Util.size(datasets.getRestSize(), Unit.MEGABYTE));
+    }
+
+    /**
+     * Строка CSV с итогами по группам, не попавшим в отчет (в колонках {@link Group#getCsvHeader()})
+     * */
+    public String getGroupsRestCsvRow() {
+        TopK<Group> groups = getGroups();
+        return String.format("\"[]\";\"Everything else: %d groups\";\"[]\";\"[]\";\"%-10.3f\"", groups.getRestCount(), Util.size(groups.getRestSize(), Unit.MEGABYTE));
+    }
+}
@@ -1,11 +1,15 @@
 package ru.asb.dataset.collectors;
 
 import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.DatasetView;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Files;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Supplier;
 
 public interface Collector {
     /**
@@ -13,8 +17,59 @@ public interface Collector {
      * */
     void collectDatasets(Collection<Path> dsFiles, boolean descriptor) throws IOException, InterruptedException;
 
+    /**
+     * Сбор дата-сета из одной строки листинга (потоковый режим).
+     * Может вызываться одновременно из нескольких потоков.
+     * */
+    void collectRow(CharSequence row, boolean descriptor);
+
+    /**
+     * Сбор разобранного дата-сета (например, из снимка листинга).
+     * Может вызываться одновременно из нескольких потоков.
+     * */
+    void collectDataset(Dataset dataset);
+
+    /**
+     * Читать и сохранять снимки файлов листингов ({@link ru.asb.dataset.ListingSnapshot})
+     * */
+    void setSnapshots(boolean snapshots);
+
     /**
      * Получить список всех дата-сетов коллектора
      * */
     List<Dataset> getDatasets();
+
+    /**
+     * Получить дата-сеты коллектора только для чтения.
+     * Коллектор с колоночным хранилищем возвращает строки хранилища без создания объектов Dataset,
+     * коллектор с внешней сортировкой читает дата-сеты с диска при обходе.
+     * */
+    default Collection<? extends DatasetView> getDatasetViews() {
+        return getDatasets();
+    }
+
+    /**
+     * Сводные показатели собранных дата-сетов, которые поддерживаются во время сбора
+     * */
+    DatasetStatistics getStatistics();
+
+    /**
+     * Коллектор с внешней сортировкой ({@link ExternalMergeCollector}), если оценка памяти для листингов превышает бюджет,
+     * иначе коллектор в памяти.
+     * Количество строк оценивается по размеру существующих локальных листингов.
+     * @param heapBudget бюджет памяти, байт; 0 - без ограничения.
+     * */
+    static Collector forHeapBudget(long heapBudget, Collection<Path> listingFiles, Supplier<Collector> inMemoryCollector) throws IOException {
+        if (heapBudget > 0) {
+            long listingsSize = 0L;
+            for (Path listingFile : listingFiles) {
+                if (Files.exists(listingFile))
+                    listingsSize += Files.size(listingFile);
+            }
+            long estimatedHeap = listingsSize / ExternalMergeCollector.AVERAGE_ROW_LENGTH * ExternalMergeCollector.HEAP_BYTES_PER_ROW;
+            if (estimatedHeap > heapBudget)
+                return new ExternalMergeCollector(heapBudget);
+        }
+        return inMemoryCollector.get();
+    }
 }
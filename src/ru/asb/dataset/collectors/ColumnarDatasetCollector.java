@@ -0,0 +1,81 @@
+package ru.asb.dataset.collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.DatasetStore;
+import ru.asb.dataset.DatasetView;
+import ru.asb.dataset.parsers.DatasetLineParser;
+import ru.asb.dataset.parsers.ParserConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Коллектор, собирающий дата-сеты в колоночное хранилище {@link DatasetStore}.
+ * Разобранный дата-сет сразу переносится в колонки, в куче остаются только примитивные массивы.
+ * */
+public class ColumnarDatasetCollector implements Collector {
+    private static final Logger log = LogManager.getLogger(ColumnarDatasetCollector.class);
+    private final DatasetStore store;
+    private final DatasetLineParser parser;
+    private boolean snapshots = false;
+
+    public ColumnarDatasetCollector() {
+        this.store = new DatasetStore();
+        this.parser = ParserConfig.get().newParser();
+    }
+
+    @Override
+    public void collectDatasets(Collection<Path> dsFiles, boolean descriptor) throws IOException, InterruptedException {
+        if (dsFiles != null) {
+            for (Path dsFile : dsFiles) {
+                log.info("Collecting datasets from file {}", dsFile.toString());
+                ListingFileCollector.collect(dsFile, descriptor, snapshots, parser, this);
+            }
+            log.info("Datasets in store: {} | names off-heap: {} Mb", store.count(), store.offHeapBytes() / (1024 * 1024));
+        }
+    }
+
+    @Override
+    public void collectRow(CharSequence row, boolean descriptor) {
+        Dataset dataset = parser.parse(row, descriptor);
+        if (dataset != null && dataset.isCorrect())
+            collectDataset(dataset);
+    }
+
+    @Override
+    public void collectDataset(Dataset dataset) {
+        store.add(dataset);
+    }
+
+    @Override
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Создает объекты Dataset для всех строк хранилища; для обработки используйте {@link #getDatasetViews()}
+     * */
+    @Override
+    public List<Dataset> getDatasets() {
+        return store.getDatasets();
+    }
+
+    @Override
+    public List<DatasetView> getDatasetViews() {
+        return store.rows();
+    }
+
+    @Override
+    public DatasetStatistics getStatistics() {
+        return store.getStatistics();
+    }
+
+    public DatasetStore getStore() {
+        return store;
+    }
+}
@@ -3,19 +3,25 @@ package ru.asb.dataset.collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.DatasetView;
+import ru.asb.dataset.parsers.DatasetLineParser;
+import ru.asb.dataset.parsers.ParserConfig;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
 
 public class DatasetMapCollector implements Collector {
     private final Map<String, Dataset> datasets;
+    private final DatasetLineParser parser;
+    private final DatasetStatistics statistics = new DatasetStatistics();
+    private boolean snapshots = false;
     private static final Logger log = LogManager.getLogger(DatasetMapCollector.class);
 
     public DatasetMapCollector() {
         this.datasets = new TreeMap<>();
+        this.parser = ParserConfig.get().newParser();
     }
 
     @Override
@@ -23,27 +29,51 @@ public class DatasetMapCollector implements Collector {
         if (dsFiles != null) {
             for (Path dsFile : dsFiles) {
                 log.info("Collecting datasets from file {}", dsFile.toString());
-                BufferedReader bufferedReader = new BufferedReader(new FileReader(dsFile.toFile()));
-                String row;
-                while ((row = bufferedReader.readLine()) != null) {
-                    Dataset dataset = new Dataset(row, descriptor);
-                    if (dataset.isCorrect()) {
-                        Dataset updatedDs = datasets.get(dataset.getName());
-                        if (updatedDs != null) {
-                            updatedDs.merge(dataset);
-                        } else {
-                            datasets.put(dataset.getName(), dataset);
-                        }
-                    }
-                    if (Thread.interrupted()) throw new InterruptedException();
-                }
-                bufferedReader.close();
+                ListingFileCollector.collect(dsFile, descriptor, snapshots, parser, this);
             }
         }
     }
 
     @Override
-    public List<Dataset> getDatasets() {
+    public void collectRow(CharSequence row, boolean descriptor) {
+        Dataset dataset = parser.parse(row, descriptor);
+        if (dataset != null && dataset.isCorrect())
+            collectDataset(dataset);
+    }
+
+    @Override
+    public synchronized void collectDataset(Dataset dataset) {
+        Dataset updatedDs = datasets.get(dataset.getName());
+        if (updatedDs != null) {
+            boolean orphan = updatedDs.isOrphan();
+            updatedDs.merge(dataset);
+            statistics.merged(dataset, orphan && !updatedDs.isOrphan());
+        } else {
+            datasets.put(dataset.getName(), dataset);
+            statistics.added(dataset);
+        }
+    }
+
+    @Override
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    @Override
+    public synchronized List<Dataset> getDatasets() {
         return new ArrayList<>(datasets.values());
     }
+
+    /**
+     * Дата-сеты коллектора без копирования, отсортированные по имени
+     * */
+    @Override
+    public synchronized Collection<? extends DatasetView> getDatasetViews() {
+        return Collections.unmodifiableCollection(datasets.values());
+    }
+
+    @Override
+    public DatasetStatistics getStatistics() {
+        return statistics;
+    }
 }
@@ -3,20 +3,30 @@ package ru.asb.dataset.collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.parsers.DatasetLineParser;
+import ru.asb.dataset.parsers.ParserConfig;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.nio.file.Path;
 import java.util.*;
 
+/**
+ * Дата-сеты могут быть удалены сборщиком мусора до обработки, поэтому результат неполный при нехватке памяти.
+ * @deprecated для листингов, не помещающихся в память, используйте {@link ExternalMergeCollector}.
+ * */
+@Deprecated
 public class DatasetSoftReferenceMapCollector implements Collector {
     private Map<String, SoftReference<Dataset>> datasets;
+    private final DatasetLineParser parser;
+    private final DatasetStatistics statistics = new DatasetStatistics();
+    private boolean snapshots = false;
     private static final Logger log = LogManager.getLogger(DatasetMapCollector.class);
 
     public DatasetSoftReferenceMapCollector() {
         this.datasets = new TreeMap<>();
+        this.parser = ParserConfig.get().newParser();
     }
 
     @Override
@@ -24,30 +34,41 @@ public class DatasetSoftReferenceMapCollector implements Collector {
         if (dsFiles != null) {
             for (Path dsFile : dsFiles) {
                 log.info("Collecting datasets from file {}", dsFile.toString());
-                BufferedReader bufferedReader = new BufferedReader(new FileReader(dsFile.toFile()));
-                String row;
-                while ((row = bufferedReader.readLine()) != null) {
-                    Dataset dataset = new Dataset(row, descriptor);
-                    if (dataset.isCorrect()) {
-                        SoftReference<Dataset> dsSoftReference = datasets.get(dataset.getName());
-                        if (dsSoftReference != null) {
-                            Dataset updatedDs = dsSoftReference.get();
-                            if (updatedDs != null) {
-                                updatedDs.merge(dataset);
-                            }
-                        } else {
-                            datasets.put(dataset.getName(), new SoftReference<>(dataset));
-                        }
-                    }
-                    if (Thread.interrupted()) throw new InterruptedException();
-                }
-                bufferedReader.close();
+                ListingFileCollector.collect(dsFile, descriptor, snapshots, parser, this);
             }
         }
     }
 
     @Override
-    public List<Dataset> getDatasets() {
+    public void collectRow(CharSequence row, boolean descriptor) {
+        Dataset dataset = parser.parse(row, descriptor);
+        if (dataset != null && dataset.isCorrect())
+            collectDataset(dataset);
+    }
+
+    @Override
+    public synchronized void collectDataset(Dataset dataset) {
+        SoftReference<Dataset> dsSoftReference = datasets.get(dataset.getName());
+        if (dsSoftReference != null) {
+            Dataset updatedDs = dsSoftReference.get();
+            if (updatedDs != null) {
+                boolean orphan = updatedDs.isOrphan();
+                updatedDs.merge(dataset);
+                statistics.merged(dataset, orphan && !updatedDs.isOrphan());
+            }
+        } else {
+            datasets.put(dataset.getName(), new SoftReference<>(dataset));
+            statistics.added(dataset);
+        }
+    }
+
+    @Override
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    @Override
+    public synchronized List<Dataset> getDatasets() {
         List<Dataset> dsList = new ArrayList<>();
         for (SoftReference<Dataset> reference : datasets.values()) {
             Dataset ds = reference.get();
@@ -57,4 +78,12 @@ public class DatasetSoftReferenceMapCollector implements Collector {
         }
         return dsList;
     }
+
+    /**
+     * Показатели всех собранных строк, в том числе дата-сетов, удаленных сборщиком мусора
+     * */
+    @Override
+    public DatasetStatistics getStatistics() {
+        return statistics;
+    }
 }
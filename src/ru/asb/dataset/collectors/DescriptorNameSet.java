@@ -0,0 +1,79 @@
+package ru.asb.dataset.collectors;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Множество имен дата-сетов с дескрипторами: фильтр Блума перед точным множеством.
+ * Большинство имен без дескриптора отсекается фильтром Блума без обращения к множеству строк;
+ * положительный ответ фильтра подтверждается точным множеством.
+ * */
+class DescriptorNameSet {
+    private static final int BITS_PER_NAME = 10;
+    private static final int HASH_COUNT = 7;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final Set<String> names = new HashSet<>();
+    private long[] bloom;
+    private long bloomBits;
+    private int capacity;
+
+    DescriptorNameSet() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    void add(String name) {
+        if (names.add(name)) {
+            if (names.size() > capacity) {
+                allocate(capacity * 2);
+                for (String existing : names)
+                    addToBloom(hash(existing));
+            } else {
+                addToBloom(hash(name));
+            }
+        }
+    }
+
+    boolean contains(String name) {
+        long hash = hash(name);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % bloomBits;
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return names.contains(name);
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        this.bloomBits = (long) capacity * BITS_PER_NAME;
+        this.bloom = new long[(int) ((bloomBits + 63) >>> 6)];
+    }
+
+    private void addToBloom(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % bloomBits;
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * 64-битный FNV-1a хеш имени
+     * */
+    private static long hash(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
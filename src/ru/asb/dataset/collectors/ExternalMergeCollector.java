@@ -0,0 +1,295 @@
+package ru.asb.dataset.collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetRunFile;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.DatasetView;
+import ru.asb.dataset.parsers.DatasetLineParser;
+import ru.asb.dataset.parsers.ParserConfig;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Коллектор с ограниченным объемом памяти (внешняя сортировка).
+ * Дата-сеты собираются в отсортированный по имени буфер; когда оценка его размера превышает бюджет,
+ * буфер записывается во временный файл-серию. При запросе дата-сетов серии сливаются k-путевым слиянием
+ * в одну отсортированную серию с объединенными дата-сетами, которая читается потоково.
+ * Порядок объединения совпадает с порядком сбора, поэтому результат такой же, как у {@link DatasetMapCollector}.
+ * */
+public class ExternalMergeCollector implements Collector {
+    private static final Logger log = LogManager.getLogger(ExternalMergeCollector.class);
+    /**
+     * Оценка памяти на одну строку листинга при сборе в куче, байт
+     * */
+    static final long HEAP_BYTES_PER_ROW = 256L;
+    /**
+     * Средняя длина строки листинга, байт
+     * */
+    static final long AVERAGE_ROW_LENGTH = 100L;
+    /**
+     * Максимальное количество серий, открытых одновременно при слиянии
+     * */
+    private static final int MAX_MERGE_FAN_IN = 64;
+
+    private final long heapBudget;
+    private final DatasetLineParser parser;
+    private final TreeMap<String, Dataset> buffer = new TreeMap<>();
+    private long bufferSize = 0L;
+    private final List<Path> runs = new ArrayList<>();
+    private final List<Long> runCounts = new ArrayList<>();
+    private final DatasetStatistics statistics = new DatasetStatistics();
+    private long mergedOrphansCount = -1L;
+    private Path runsDir = null;
+    private boolean merged = true;
+    private boolean snapshots = false;
+
+    /**
+     * @param heapBudget бюджет памяти для буфера дата-сетов, байт.
+     * */
+    public ExternalMergeCollector(long heapBudget) {
+        this.heapBudget = heapBudget;
+        this.parser = ParserConfig.get().newParser();
+    }
+
+    @Override
+    public void collectDatasets(Collection<Path> dsFiles, boolean descriptor) throws IOException, InterruptedException {
+        if (dsFiles != null) {
+            for (Path dsFile : dsFiles) {
+                log.info("Collecting datasets from file {}", dsFile.toString());
+                ListingFileCollector.collect(dsFile, descriptor, snapshots, parser, this);
+            }
+        }
+    }
+
+    @Override
+    public void collectRow(CharSequence row, boolean descriptor) {
+        Dataset dataset = parser.parse(row, descriptor);
+        if (dataset != null && dataset.isCorrect())
+            collectDataset(dataset);
+    }
+
+    @Override
+    public synchronized void collectDataset(Dataset dataset) {
+        Dataset updatedDs = buffer.get(dataset.getName());
+        if (updatedDs != null) {
+            boolean orphan = updatedDs.isOrphan();
+            updatedDs.merge(dataset);
+            statistics.merged(dataset, orphan && !updatedDs.isOrphan());
+            bufferSize += DatasetRunFile.estimateMergedSize(dataset);
+        } else {
+            buffer.put(dataset.getName(), dataset);
+            statistics.added(dataset);
+            bufferSize += DatasetRunFile.estimateHeapSize(dataset);
+        }
+        merged = false;
+        mergedOrphansCount = -1L;
+        if (bufferSize > heapBudget) {
+            try {
+                spill();
+            } catch (IOException ioe) {
+                throw new UncheckedIOException("Error spilling datasets to disk", ioe);
+            }
+        }
+    }
+
+    @Override
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Создает объекты Dataset для всех дата-сетов; для обработки без загрузки в память используйте {@link #getDatasetViews()}
+     * */
+    @Override
+    public synchronized List<Dataset> getDatasets() {
+        if (runs.isEmpty())
+            return new ArrayList<>(buffer.values());
+        List<Dataset> dsList = new ArrayList<>();
+        for (DatasetView dataset : getDatasetViews())
+            dsList.add((Dataset) dataset);
+        return dsList;
+    }
+
+    /**
+     * Дата-сеты, отсортированные по имени. Если буфер записывался на диск, дата-сеты читаются из итоговой серии при каждом обходе.
+     * */
+    @Override
+    public synchronized Collection<? extends DatasetView> getDatasetViews() {
+        if (runs.isEmpty())
+            return Collections.unmodifiableCollection(buffer.values());
+        try {
+            mergeRuns();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Error merging datasets runs", ioe);
+        }
+        return new RunCollection(runs.get(0), runCounts.get(0));
+    }
+
+    /**
+     * Размеры собираются при сборе. Если серии сливались, количество дата-сетов и сирот берется из итогового слияния:
+     * дата-сет из нескольких серий учитывается при сборе в каждой из них.
+     * */
+    @Override
+    public synchronized DatasetStatistics getStatistics() {
+        if (runs.isEmpty())
+            return statistics;
+        getDatasetViews();
+        if (mergedOrphansCount < 0)
+            return statistics;
+        return statistics.withCounts(runCounts.get(0), mergedOrphansCount);
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty())
+            return;
+        Path run = newRunFile();
+        try (DatasetRunFile.Writer runWriter = new DatasetRunFile.Writer(run)) {
+            for (Dataset dataset : buffer.values())
+                runWriter.write(dataset);
+            runs.add(run);
+            runCounts.add(runWriter.getCount());
+        }
+        log.info("Spilled {} datasets to {} (run {})", buffer.size(), run.toString(), runs.size());
+        buffer.clear();
+        bufferSize = 0L;
+    }
+
+    /**
+     * Слияние всех серий в одну, не более {@link #MAX_MERGE_FAN_IN} серий за проход
+     * */
+    private void mergeRuns() throws IOException {
+        if (merged && runs.size() == 1)
+            return;
+        spill();
+        if (runs.size() > 1)
+            log.info("Merging {} datasets runs", runs.size());
+        while (runs.size() > 1)
+            mergeFirstRuns(Math.min(runs.size(), MAX_MERGE_FAN_IN));
+        if (runCounts.size() == 1)
+            log.info("Datasets runs merged: {} datasets", runCounts.get(0));
+        merged = true;
+    }
+
+    /**
+     * k-путевое слияние первых серий в одну; дата-сеты с одинаковым именем объединяются в порядке серий
+     * */
+    private void mergeFirstRuns(int runsCount) throws IOException {
+        List<Path> mergingRuns = runs.subList(0, runsCount);
+        List<DatasetRunFile.Reader> readers = new ArrayList<>();
+        Path mergedRun = newRunFile();
+        boolean finalPass = runsCount == runs.size();
+        long orphansCount = 0;
+        long count;
+        try (DatasetRunFile.Writer runWriter = new DatasetRunFile.Writer(mergedRun)) {
+            for (Path run : mergingRuns)
+                readers.add(new DatasetRunFile.Reader(run));
+            PriorityQueue<Integer> queue = new PriorityQueue<>(readers.size(), (i, j) -> {
+                int diff = readers.get(i).peek().getName().compareTo(readers.get(j).peek().getName());
+                return diff != 0 ? diff : Integer.compare(i, j);
+            });
+            for (int i = 0; i < readers.size(); i++) {
+                if (readers.get(i).peek() != null)
+                    queue.add(i);
+            }
+            while (!queue.isEmpty()) {
+                Dataset dataset = next(queue, readers);
+                while (!queue.isEmpty() && readers.get(queue.peek()).peek().getName().equals(dataset.getName()))
+                    dataset.merge(next(queue, readers));
+                if (dataset.isOrphan())
+                    orphansCount++;
+                runWriter.write(dataset);
+            }
+            count = runWriter.getCount();
+        } finally {
+            for (DatasetRunFile.Reader reader : readers)
+                reader.close();
+        }
+        for (Path run : mergingRuns)
+            Files.deleteIfExists(run);
+        mergingRuns.clear();
+        runCounts.subList(0, runsCount).clear();
+        runs.add(0, mergedRun);
+        runCounts.add(0, count);
+        if (finalPass)
+            mergedOrphansCount = orphansCount;
+    }
+
+    private static Dataset next(PriorityQueue<Integer> queue, List<DatasetRunFile.Reader> readers) throws IOException {
+        int index = queue.poll();
+        Dataset dataset = readers.get(index).next();
+        if (readers.get(index).peek() != null)
+            queue.add(index);
+        return dataset;
+    }
+
+    private Path newRunFile() throws IOException {
+        if (runsDir == null) {
+            runsDir = Files.createTempDirectory("datasets-runs");
+            runsDir.toFile().deleteOnExit();
+        }
+        Path run = Files.createTempFile(runsDir, "run", ".tmp");
+        run.toFile().deleteOnExit();
+        return run;
+    }
+
+    /**
+     * Дата-сеты серии: каждый обход читает файл серии от начала.
+     * Серия читается пакетами по {@link #BATCH_SIZE} дата-сетов, файл открыт только во время чтения пакета,
+     * поэтому незавершенный обход не оставляет открытых файлов.
+     * */
+    private static final class RunCollection extends AbstractCollection<DatasetView> {
+        private static final int BATCH_SIZE = 4096;
+        private final Path run;
+        private final long count;
+
+        private RunCollection(Path run, long count) {
+            this.run = run;
+            this.count = count;
+        }
+
+        @Override
+        public Iterator<DatasetView> iterator() {
+            return new Iterator<DatasetView>() {
+                private final ArrayDeque<Dataset> batch = new ArrayDeque<>(BATCH_SIZE);
+                private long position = 0L;
+                private boolean end = false;
+
+                @Override
+                public boolean hasNext() {
+                    if (batch.isEmpty() && !end)
+                        readBatch();
+                    return !batch.isEmpty();
+                }
+
+                @Override
+                public DatasetView next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return batch.poll();
+                }
+
+                private void readBatch() {
+                    try (DatasetRunFile.Reader reader = new DatasetRunFile.Reader(run, position)) {
+                        while (batch.size() < BATCH_SIZE && reader.peek() != null)
+                            batch.add(reader.next());
+                        position = reader.getPosition();
+                        end = reader.peek() == null;
+                    } catch (IOException ioe) {
+                        throw new UncheckedIOException(ioe);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return (int) Math.min(count, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package ru.asb.dataset.collectors;
+
+import ru.asb.dataset.Dataset;
+import ru.asb.dataset.ListingSnapshot;
+import ru.asb.dataset.parsers.DatasetLineParser;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Сбор дата-сетов одного файла листинга: из снимка, если он действителен, иначе разбором строк.
+ * При разборе с включенными снимками одновременно записывается новый снимок;
+ * ошибка записи снимка только логируется и не прерывает разбор.
+ * */
+final class ListingFileCollector {
+    private ListingFileCollector() {
+    }
+
+    static void collect(Path dsFile, boolean descriptor, boolean snapshots, DatasetLineParser parser, Collector collector) throws IOException, InterruptedException {
+        if (snapshots && ListingSnapshot.load(dsFile, descriptor, collector::collectDataset))
+            return;
+        try (MappedListingReader listingReader = new MappedListingReader(dsFile);
+             ListingSnapshot.Writer snapshotWriter = snapshots ? ListingSnapshot.writer(dsFile, descriptor) : null) {
+            CharSequence row;
+            while ((row = listingReader.readLine()) != null) {
+                Dataset dataset = parser.parse(row, descriptor);
+                if (dataset != null && dataset.isCorrect()) {
+                    //Снимок записывается до сбора: собранный дата-сет может измениться при объединении
+                    if (snapshotWriter != null)
+                        snapshotWriter.write(dataset);
+                    collector.collectDataset(dataset);
+                }
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+            if (snapshotWriter != null)
+                snapshotWriter.commit();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package ru.asb.dataset.collectors;
+
+import ru.asb.dataset.parsers.ByteLine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Построчное чтение файла листинга через FileChannel.map без декодирования байт.
+ * Концом строки считается '\n' или '\0' (записи find -printf ... \0).
+ * Файл отображается окнами по {@link #WINDOW_SIZE}, поэтому поддерживаются файлы больше 2 Гб.
+ * Строка, которая не поместилась в окно, читается из следующего окна, начинающегося с начала этой строки.
+ * */
+public class MappedListingReader implements Closeable {
+    static final long WINDOW_SIZE = 256L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long end;
+    private final ByteLine line = new ByteLine();
+    private byte[] lineBytes = new byte[1024];
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long windowSize;
+
+    public MappedListingReader(Path file) throws IOException {
+        this(file, 0L, Long.MAX_VALUE);
+    }
+
+    /**
+     * Чтение части файла [from, to). Позиция from должна быть началом строки.
+     * */
+    public MappedListingReader(Path file, long from, long to) throws IOException {
+        this(file, from, to, WINDOW_SIZE);
+    }
+
+    MappedListingReader(Path file, long from, long to, long windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.end = Math.min(to, channel.size());
+        this.windowStart = from;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return следующая строка без символов конца строки или null, если достигнут конец.
+     * Возвращаемый объект переиспользуется при следующем вызове.
+     * */
+    public ByteLine readLine() throws IOException {
+        while (true) {
+            if (window == null) {
+                if (windowStart >= end)
+                    return null;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, end - windowStart));
+            }
+
+            int lineStart = window.position();
+            int limit = window.limit();
+            int pos = lineStart;
+            while (pos < limit && !isLineEnd(window.get(pos)))
+                pos++;
+
+            boolean lastWindow = windowStart + limit >= end;
+            if (pos == limit && !lastWindow) {
+                if (lineStart == 0)
+                    windowSize = Math.min(windowSize * 2, Integer.MAX_VALUE);
+                windowStart += lineStart;
+                window = null;
+                continue;
+            }
+            if (pos == limit && lineStart == limit) {
+                windowStart += limit;
+                window = null;
+                return null;
+            }
+
+            int lineEnd = pos;
+            if (lineEnd > lineStart && window.get(lineEnd - 1) == '\r')
+                lineEnd--;
+            int length = lineEnd - lineStart;
+            if (lineBytes.length < length)
+                lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+            window.get(lineBytes, 0, length);
+            window.position(pos < limit ? pos + 1 : limit);
+            return line.set(lineBytes, 0, length);
+        }
+    }
+
+    /**
+     * Делит файл на части примерно одинакового размера, выровненные по началу строк.
+     * @return границы частей: [0, b1, ..., размер файла]
+     * */
+    public static long[] split(Path file, int parts) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long[] bounds = new long[parts + 1];
+            int count = 1;
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (int i = 1; i < parts; i++) {
+                long bound = nextLineStart(channel, Math.max(size / parts * i, bounds[count - 1]), buffer);
+                if (bound > bounds[count - 1] && bound < size)
+                    bounds[count++] = bound;
+            }
+            bounds[count++] = size;
+            long[] result = new long[count];
+            System.arraycopy(bounds, 0, result, 0, count);
+            return result;
+        }
+    }
+
+    static boolean isLineEnd(byte b) {
+        return b == '\n' || b == 0;
+    }
+
+    /**
+     * Позиция начала строки, следующей за концом строки не раньше position - 1
+     * */
+    private static long nextLineStart(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        if (position == 0)
+            return 0;
+        long pos = position - 1;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, pos);
+            if (read <= 0)
+                return channel.size();
+            for (int i = 0; i < read; i++) {
+                if (isLineEnd(buffer.get(i)))
+                    return pos + i + 1;
+            }
+            pos += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,101 @@
+package ru.asb.dataset.collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.DatasetView;
+import ru.asb.dataset.parsers.DatasetLineParser;
+import ru.asb.dataset.parsers.ParserConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Коллектор дата-сетов сирот (без дескрипторов) в два этапа.
+ * Из листингов дескрипторов собираются только имена ({@link DescriptorNameSet}), затем строки листингов данных
+ * проверяются по этому множеству и сохраняются только сироты. Дата-сеты с дескрипторами в памяти не хранятся.
+ * Листинги дескрипторов должны быть собраны до листингов данных.
+ * */
+public class OrphanCollector implements Collector {
+    private static final Logger log = LogManager.getLogger(OrphanCollector.class);
+    private final DescriptorNameSet descriptorNames = new DescriptorNameSet();
+    private final Map<String, Dataset> orphans = new TreeMap<>();
+    private final DatasetLineParser parser;
+    private final DatasetStatistics statistics = new DatasetStatistics();
+    private boolean snapshots = false;
+    private long skippedCount = 0;
+
+    public OrphanCollector() {
+        this.parser = ParserConfig.get().newParser();
+    }
+
+    @Override
+    public void collectDatasets(Collection<Path> dsFiles, boolean descriptor) throws IOException, InterruptedException {
+        if (dsFiles != null) {
+            for (Path dsFile : dsFiles) {
+                log.info("Collecting {} from file {}", descriptor ? "descriptor names" : "orphans", dsFile.toString());
+                ListingFileCollector.collect(dsFile, descriptor, snapshots, parser, this);
+            }
+        }
+        if (descriptor)
+            log.info("Descriptor names collected: {}", descriptorNames.size());
+        else
+            log.info("Orphans collected: {} ({} data rows with descriptors skipped)", orphans.size(), skippedCount);
+    }
+
+    @Override
+    public void collectRow(CharSequence row, boolean descriptor) {
+        Dataset dataset = parser.parse(row, descriptor);
+        if (dataset != null && dataset.isCorrect())
+            collectDataset(dataset);
+    }
+
+    /**
+     * Дескриптор добавляет имя в множество, строка данных сохраняется, только если дескриптора с таким именем нет
+     * */
+    @Override
+    public synchronized void collectDataset(Dataset dataset) {
+        if (!dataset.isOrphan()) {
+            descriptorNames.add(dataset.getName());
+        } else if (descriptorNames.contains(dataset.getName())) {
+            skippedCount++;
+        } else {
+            Dataset updatedDs = orphans.get(dataset.getName());
+            if (updatedDs != null) {
+                updatedDs.merge(dataset);
+                statistics.merged(dataset, false);
+            } else {
+                orphans.put(dataset.getName(), dataset);
+                statistics.added(dataset);
+            }
+        }
+    }
+
+    @Override
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    /**
+     * Только дата-сеты сироты
+     * */
+    @Override
+    public synchronized List<Dataset> getDatasets() {
+        return new ArrayList<>(orphans.values());
+    }
+
+    @Override
+    public synchronized Collection<? extends DatasetView> getDatasetViews() {
+        return Collections.unmodifiableCollection(orphans.values());
+    }
+
+    /**
+     * Показатели только сирот
+     * */
+    @Override
+    public DatasetStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,173 @@
+package ru.asb.dataset.collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetStatistics;
+import ru.asb.dataset.DatasetView;
+import ru.asb.dataset.ListingSnapshot;
+import ru.asb.dataset.parsers.DatasetLineParser;
+import ru.asb.dataset.parsers.ParserConfig;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Параллельный сбор дата-сетов.
+ * Каждый файл листинга делится на части, выровненные по строкам, части разбираются в ForkJoinPool,
+ * а строки частей объединяются в ConcurrentHashMap в порядке частей, поэтому результат не зависит от порядка завершения потоков
+ * и совпадает с последовательным сбором. Сортировка по имени выполняется один раз при запросе списка.
+ * */
+public class ParallelDatasetCollector implements Collector {
+    private static final Logger log = LogManager.getLogger(ParallelDatasetCollector.class);
+    private static final long MIN_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    private final ConcurrentMap<String, Dataset> datasets;
+    private final DatasetLineParser parser;
+    private final int parallelism;
+    private final DatasetStatistics statistics = new DatasetStatistics();
+    private boolean snapshots = false;
+    private volatile List<Dataset> sortedDatasets = null;
+
+    /**
+     * @param threadsCount количество потоков разбора; 0 - по числу процессоров.
+     * */
+    public ParallelDatasetCollector(int threadsCount) {
+        this.datasets = new ConcurrentHashMap<>();
+        this.parser = ParserConfig.get().newParser();
+        this.parallelism = threadsCount > 0 ? threadsCount : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    public void collectDatasets(Collection<Path> dsFiles, boolean descriptor) throws IOException, InterruptedException {
+        sortedDatasets = null;
+        if (dsFiles == null)
+            return;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Path dsFile : dsFiles) {
+                if (snapshots && ListingSnapshot.load(dsFile, descriptor, this::collectDataset))
+                    continue;
+                collectFile(pool, dsFile, descriptor);
+            }
+        } finally {
+            pool.shutdownNow();
+            sortedDatasets = null;
+        }
+    }
+
+    /**
+     * Части файла разбираются параллельно (не больше 2 * parallelism частей одновременно),
+     * а их строки объединяются в текущем потоке в порядке частей, как при последовательном разборе.
+     * */
+    private void collectFile(ForkJoinPool pool, Path dsFile, boolean descriptor) throws IOException, InterruptedException {
+        int parts = (int) Math.max(1L, Math.min(Files.size(dsFile) / MIN_CHUNK_SIZE, parallelism * 4L));
+        long[] bounds = MappedListingReader.split(dsFile, parts);
+        int chunksCount = bounds.length - 1;
+        int window = parallelism * 2;
+        log.info("Collecting datasets from file {} in {} part(s)", dsFile.toString(), chunksCount);
+        List<Future<List<Dataset>>> chunks = new ArrayList<>(chunksCount);
+        try (ListingSnapshot.Writer snapshotWriter = snapshots ? ListingSnapshot.writer(dsFile, descriptor) : null) {
+            for (int i = 0; i < chunksCount; i++) {
+                while (chunks.size() < chunksCount && chunks.size() <= i + window) {
+                    long from = bounds[chunks.size()];
+                    long to = bounds[chunks.size() + 1];
+                    chunks.add(pool.submit(() -> parseChunk(dsFile, from, to, descriptor)));
+                }
+                List<Dataset> rows = result(chunks.get(i));
+                chunks.set(i, null);
+                for (Dataset dataset : rows) {
+                    //Снимок записывается до сбора: собранный дата-сет может измениться при объединении
+                    if (snapshotWriter != null)
+                        snapshotWriter.write(dataset);
+                    collectDataset(dataset);
+                }
+            }
+            if (snapshotWriter != null)
+                snapshotWriter.commit();
+        }
+    }
+
+    private List<Dataset> parseChunk(Path dsFile, long from, long to, boolean descriptor) throws IOException, InterruptedException {
+        List<Dataset> rows = new ArrayList<>();
+        try (MappedListingReader listingReader = new MappedListingReader(dsFile, from, to)) {
+            CharSequence row;
+            while ((row = listingReader.readLine()) != null) {
+                Dataset dataset = parser.parse(row, descriptor);
+                if (dataset != null && dataset.isCorrect())
+                    rows.add(dataset);
+                if (Thread.interrupted()) throw new InterruptedException();
+            }
+        }
+        return rows;
+    }
+
+    private static <T> T result(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+            throw new IOException("Error collecting datasets", cause);
+        }
+    }
+
+    /**
+     * Строки, переданные потоком, попадают в отсортированный список после ближайшего вызова collectDatasets
+     * */
+    @Override
+    public void collectRow(CharSequence row, boolean descriptor) {
+        Dataset dataset = parser.parse(row, descriptor);
+        if (dataset != null && dataset.isCorrect())
+            collectDataset(dataset);
+    }
+
+    @Override
+    public void collectDataset(Dataset dataset) {
+        Dataset collectedDs = datasets.merge(dataset.getName(), dataset, (updatedDs, newDs) -> {
+            boolean orphan = updatedDs.isOrphan();
+            updatedDs.merge(newDs);
+            statistics.merged(newDs, orphan && !updatedDs.isOrphan());
+            return updatedDs;
+        });
+        if (collectedDs == dataset)
+            statistics.added(dataset);
+    }
+
+    @Override
+    public void setSnapshots(boolean snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    @Override
+    public List<Dataset> getDatasets() {
+        return new ArrayList<>(sortedDatasets());
+    }
+
+    /**
+     * Отсортированный список без копирования; сортировка выполняется один раз после сбора
+     * */
+    @Override
+    public Collection<? extends DatasetView> getDatasetViews() {
+        return Collections.unmodifiableList(sortedDatasets());
+    }
+
+    @Override
+    public DatasetStatistics getStatistics() {
+        return statistics;
+    }
+
+    private List<Dataset> sortedDatasets() {
+        List<Dataset> dsList = sortedDatasets;
+        if (dsList == null) {
+            dsList = new ArrayList<>(datasets.values());
+            Collections.sort(dsList);
+            sortedDatasets = dsList;
+        }
+        return dsList;
+    }
+}
@@ -0,0 +1,117 @@
+package ru.asb.dataset.executors;
+
+import org.apache.sshd.common.SshException;
+import ru.asb.script.Script;
+import ru.asb.script.ScriptBatch;
+import ru.asb.script.Scriptable;
+import ru.asb.ssh.SshWorker;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Выполнение скрипта пакетами: пути нескольких дата-сетов обрабатываются одной командой (одним exec-каналом), см. {@link ScriptBatch}.
+ * Дата-сеты, файлы которых остались на сервере после пакета, выполняются повторно отдельными командами.
+ * Пакеты создаются по мере отправки, в очереди не больше двух пакетов на поток.
+ * */
+public class BatchScriptExecutor extends RemoteExecutor {
+    private final Script script;
+    private final int maxBytes;
+
+    /**
+     * @param maxBytes - наибольшая длина команды пакета в байтах.
+     * */
+    public BatchScriptExecutor(SshWorker executeSession, Script script, int maxBytes) {
+        super(executeSession);
+        this.script = script;
+        this.maxBytes = maxBytes;
+    }
+
+    public synchronized void run() {
+        completeCommandsCount.set(0);
+        log.info("Run batch script executor in {} threads, up to {} bytes per command", threadsNum, maxBytes);
+        log.info("Total commands count: {}", script.getCommands().size());
+        try {
+            openSession();
+            executeBatches();
+            executeFailed();
+            log.info("Script execution finished.  Commands completed: {}", super.completeCommandsCount);
+        } catch (SshException sshe) {
+            log.warn("ExecutionSession is closed. {} | {}", sshe.getMessage(), Arrays.toString(sshe.getStackTrace()));
+        } catch (IOException ioe) {
+            log.warn("{} | {}",ioe.getMessage(), Arrays.toString(ioe.getStackTrace()));
+        } finally {
+            closeSession();
+        }
+    }
+
+    /**
+     * Выполнить пакеты команд
+     * */
+    private void executeBatches() throws SshException {
+        ExecutorService commandsExecutor = initExecutor();
+        if (!executionSession.sessionIsOpen())
+            throw new SshException("ExecutionSession is closed");
+        Semaphore queued = new Semaphore(threadsNum * 2);
+        int batchesCount = 0;
+        try {
+            for (ScriptBatch batch : script.getBatches(maxBytes)) {
+                queued.acquire();
+                batchesCount++;
+                commandsExecutor.submit(() -> {
+                    try {
+                        executeBatch(batch);
+                    } catch (Exception e) {
+                        log.error("Error executing batch of {} commands | {} | {}", batch.size(), e, Arrays.toString(e.getStackTrace()));
+                        commandsExecutor.shutdownNow();
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+
+            commandsExecutor.shutdown();
+            while (!commandsExecutor.awaitTermination(Integer.MAX_VALUE, TimeUnit.MILLISECONDS)) {
+                log.warn("Executors await termination timeout is elapsed");
+            }
+        } catch (InterruptedException ie) {
+            commandsExecutor.shutdownNow();
+            log.info("Script execution interrupted manually");
+        } catch (Exception e) {
+            log.error("Dataset decommission error: {} | {}", e, Arrays.toString(e.getStackTrace()));
+        }
+        log.info("Commands sent in {} batches", batchesCount);
+    }
+
+    /**
+     * Выполняет пакет; дата-сеты, файлы которых остались на сервере, добавляются в неуспешные команды
+     * */
+    private void executeBatch(ScriptBatch batch) throws IOException {
+        List<String> remainingPaths = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(commandExecutor.execute(batch.getCommand(), batch.getDescription()), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty())
+                    remainingPaths.add(line);
+            }
+        } catch (SshException sshe) {
+            log.warn("Batch of {} commands failed | {}", batch.size(), sshe.toString());
+            for (Scriptable scriptable : batch.getScriptables())
+                failedCommands.add(script.getCommand(scriptable));
+            return;
+        }
+        Set<Scriptable> failed = batch.getFailed(remainingPaths);
+        for (Scriptable scriptable : failed) {
+            String command = script.getCommand(scriptable);
+            failedCommands.add(command);
+            log.warn("Command failed in batch: {}", command.trim());
+        }
+        completeCommandsCount.getAndAdd(batch.size() - failed.size());
+    }
+}
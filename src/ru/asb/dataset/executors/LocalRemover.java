@@ -1,15 +1,15 @@
 package ru.asb.dataset.executors;
 
-import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetView;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.util.List;
 
 public class LocalRemover extends Executor {
-    List<Dataset> datasets;
+    List<? extends DatasetView> datasets;
 
-    public LocalRemover(List<Dataset> datasets) {
+    public LocalRemover(List<? extends DatasetView> datasets) {
         this.datasets = datasets;
     }
 
@@ -0,0 +1,138 @@
+package ru.asb.dataset.executors;
+
+import org.apache.sshd.common.SshException;
+import ru.asb.dataset.updaters.LineSplittingOutputStream;
+import ru.asb.script.Script;
+import ru.asb.ssh.SshWorker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Удаление по манифесту: пути всех дата-сетов записываются в файл через NUL, файл отправляется на сервер по SCP
+ * и удаляется одной командой xargs -0 -P N на сервере. Во время выполнения команда выводит строки
+ * <pre>
+ * P количество путь  - обработана часть манифеста: количество путей, начиная с указанного
+ * F путь             - файл остался на сервере
+ * X код              - код завершения xargs
+ * </pre>
+ * По оставшимся файлам определяются дата-сеты, которые выполняются повторно отдельными командами.
+ * Поддерживается только удаление ({@link Script#isRemove()}): оставшийся файл означает ошибку только для rm.
+ * Если xargs завершился с ошибкой или обработаны не все пути, дата-сеты из необработанных частей манифеста
+ * выполняются отдельными командами в {@link #threadsNum} потоков.
+ * */
+public class ManifestExecutor extends RemoteExecutor {
+    private static final int PATHS_PER_COMMAND = 1000;
+    private static final String PATHS_CHECK = "; for f; do if [ -e \"$f\" ] || [ -L \"$f\" ]; then printf \"F %s\\n\" \"$f\"; fi; done; printf \"P %d %s\\n\" $# \"$1\"";
+
+    private final Script script;
+    private final String remoteDir;
+
+    /**
+     * @param remoteDir - папка на сервере для манифеста.
+     * */
+    public ManifestExecutor(SshWorker executeSession, Script script, String remoteDir) {
+        super(executeSession);
+        if (!script.isRemove())
+            throw new IllegalArgumentException("Manifest executor supports only rm commands");
+        this.script = script;
+        this.remoteDir = remoteDir.endsWith("/") ? remoteDir : remoteDir + "/";
+    }
+
+    /**
+     * Команда на сервере: пути манифеста передаются командам скрипта пачками через xargs, затем манифест удаляется.
+     * Команда завершается с кодом xargs, код также выводится строкой X.
+     * */
+    private String command(String remoteManifest) {
+        String body = script.getArgumentsCommand() + PATHS_CHECK;
+        return "xargs -0 -P " + threadsNum + " -n " + PATHS_PER_COMMAND + " sh -c " + quote(body) + " sh"
+                + " < " + quote(remoteManifest) + "; s=$?; rm -f " + quote(remoteManifest)
+                + "; printf 'X %d\\n' $s; exit $s";
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    public synchronized void run() {
+        completeCommandsCount.set(0);
+        log.info("Run manifest executor in {} threads", threadsNum);
+        Path manifestFile = null;
+        try {
+            manifestFile = Files.createTempFile("rm_manifest_", ".lst");
+            long pathsCount = script.writeManifest(manifestFile);
+            log.info("Manifest {}: {} paths", manifestFile, pathsCount);
+            if (pathsCount == 0)
+                return;
+            openSession();
+            executionSession.sendFile(manifestFile, remoteDir);
+            String remoteManifest = remoteDir + manifestFile.getFileName().toString();
+
+            Set<String> failedPaths = Collections.synchronizedSet(new LinkedHashSet<>());
+            Map<String, Long> chunks = new ConcurrentHashMap<>();
+            AtomicLong processed = new AtomicLong();
+            AtomicInteger exitStatus = new AtomicInteger(-1);
+            long step = Math.max(1L, pathsCount / 10);
+            try (OutputStream progressStream = new LineSplittingOutputStream(row -> {
+                if (row.length() > 2 && row.charAt(1) == ' ') {
+                    String value = row.toString().substring(2);
+                    if (row.charAt(0) == 'P') {
+                        int separator = value.indexOf(' ');
+                        long count = Long.parseLong(separator < 0 ? value.trim() : value.substring(0, separator));
+                        if (separator >= 0 && count > 0)
+                            chunks.put(value.substring(separator + 1), count);
+                        long before = processed.getAndAdd(count);
+                        if (before / step != processed.get() / step)
+                            log.info("Removed {} of {} paths", processed.get(), pathsCount);
+                    } else if (row.charAt(0) == 'F') {
+                        failedPaths.add(value);
+                    } else if (row.charAt(0) == 'X') {
+                        exitStatus.set(Integer.parseInt(value.trim()));
+                    }
+                }
+            }, null)) {
+                executionSession.execute(command(remoteManifest), progressStream);
+            } catch (IOException ioe) {
+                log.warn("Manifest command failed after {} of {} paths | {}", processed.get(), pathsCount, ioe.toString());
+            }
+            log.info("Paths processed: {} of {}, not removed: {}, exit status: {}", processed.get(), pathsCount, failedPaths.size(), exitStatus.get());
+
+            List<String> unprocessed = exitStatus.get() == 0 && processed.get() == pathsCount
+                    ? Collections.emptyList()
+                    : script.getCommandsOutside(chunks);
+            List<String> failed = script.getCommands(failedPaths);
+            if (!unprocessed.isEmpty())
+                failed.removeAll(new HashSet<>(unprocessed));
+            for (String command : failed)
+                log.warn("Command failed in manifest: {}", command.trim());
+            failedCommands.addAll(failed);
+            completeCommandsCount.set(script.getCommands().size() - failed.size() - unprocessed.size());
+            if (!unprocessed.isEmpty()) {
+                log.warn("Manifest is not completed, {} commands will be executed in {} threads", unprocessed.size(), threadsNum);
+                if (!executionSession.sessionIsOpen())
+                    openSession();
+                execute(unprocessed);
+            }
+            executeFailed();
+            log.info("Script execution finished.  Commands completed: {}", super.completeCommandsCount);
+        } catch (SshException sshe) {
+            log.warn("ExecutionSession is closed. {} | {}", sshe.getMessage(), Arrays.toString(sshe.getStackTrace()));
+        } catch (IOException ioe) {
+            log.warn("{} | {}",ioe.getMessage(), Arrays.toString(ioe.getStackTrace()));
+        } finally {
+            closeSession();
+            try {
+                if (manifestFile != null)
+                    Files.deleteIfExists(manifestFile);
+            } catch (IOException ioe) {
+                log.warn("Unable to delete manifest {} | {}", manifestFile, ioe.getMessage());
+            }
+        }
+    }
+}
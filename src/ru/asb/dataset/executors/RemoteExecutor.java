@@ -1,12 +1,15 @@
 package ru.asb.dataset.executors;
 
 import org.apache.sshd.common.SshException;
+import ru.asb.ssh.SshCommandExecutor;
+import ru.asb.ssh.SshSessionPool;
 import ru.asb.ssh.SshWorker;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -16,11 +19,20 @@ import java.util.concurrent.TimeUnit;
 public abstract class RemoteExecutor extends Executor {
     protected final SshWorker executionSession;
     protected final List<String> failedCommands;
+    protected SshCommandExecutor commandExecutor;
 
     protected RemoteExecutor(SshWorker executionSession) {
         super();
         this.executionSession = executionSession;
-        this.failedCommands = new ArrayList<>();
+        this.commandExecutor = executionSession;
+        this.failedCommands = Collections.synchronizedList(new ArrayList<>());
+    }
+
+    /**
+     * Выполнять команды в сессиях пула, а не в одной сессии executionSession
+     * */
+    public synchronized void setSessionPool(SshSessionPool sessionPool) {
+        this.commandExecutor = sessionPool != null ? sessionPool : executionSession;
     }
 
     /**
@@ -48,7 +60,7 @@ public abstract class RemoteExecutor extends Executor {
             for (String command : commands) {
                 commandsExecutor.submit(() -> {
                     try {
-                        executionSession.execute(command);
+                        commandExecutor.execute(command);
                         completeCommandsCount.getAndIncrement();
                     } catch (SshException sshe) {
                         failedCommands.add(command);
@@ -80,7 +92,7 @@ public abstract class RemoteExecutor extends Executor {
             log.info("Try to execute failed commands");
             for (String failedCommand : failedCommands) {
                 try {
-                    executionSession.execute(failedCommand);
+                    commandExecutor.execute(failedCommand);
                 } catch (Exception e) {
                     log.error("Error executing command: {} | {} | {}", failedCommand, e, Arrays.toString(e.getStackTrace()));
                 }
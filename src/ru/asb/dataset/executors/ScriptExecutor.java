@@ -8,7 +8,7 @@ import java.io.IOException;
 import java.util.*;
 
 public class ScriptExecutor extends RemoteExecutor {
-    private final List<String> commands;
+    private final Collection<String> commands;
 
     public ScriptExecutor(SshWorker executeSession, Script script) {
         super(executeSession);
@@ -4,11 +4,14 @@ import org.apache.sshd.common.SshException;
 import ru.asb.ssh.SshWorker;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.zip.GZIPInputStream;
 
 public class ScriptFileExecutor extends RemoteExecutor {
     private final Set<Path> scriptPaths;
@@ -32,7 +35,7 @@ public class ScriptFileExecutor extends RemoteExecutor {
             openSession();
             for (Path file : scriptPaths) {
                 if (Files.exists(file)) {
-                    BufferedReader reader = new BufferedReader(new FileReader(file.toFile()));
+                    BufferedReader reader = newReader(file);
                     List<String> commandsBuffer;
                     while(!(commandsBuffer = readCommands(reader, bufferSize)).isEmpty()) {
                         execute(commandsBuffer);
@@ -53,6 +56,16 @@ public class ScriptFileExecutor extends RemoteExecutor {
         }
     }
 
+    /**
+     * Ридер файла скрипта; файл .gz читается с распаковкой
+     * */
+    private static BufferedReader newReader(Path file) throws IOException {
+        InputStream inputStream = Files.newInputStream(file);
+        if (file.getFileName().toString().toLowerCase().endsWith(".gz"))
+            inputStream = new GZIPInputStream(inputStream, 64 * 1024);
+        return new BufferedReader(new InputStreamReader(inputStream, Charset.defaultCharset()));
+    }
+
     /**
      * Читает из ридера количество комманд, которое равно размеру буфера
      * */
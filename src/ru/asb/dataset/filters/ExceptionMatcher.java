@@ -0,0 +1,276 @@
+package ru.asb.dataset.filters;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Поиск имени дата-сета сразу по всем шаблонам списка исключений (ds.exception.list) без учета регистра, как Pattern.CASE_INSENSITIVE.
+ * Шаблоны без метасимволов регулярных выражений проверяются автоматом Ахо-Корасик за один проход по имени.
+ * Остальные шаблоны объединяются в одно регулярное выражение-альтернативу; шаблоны с обратными ссылками
+ * и шаблоны, которые нельзя объединить, проверяются отдельно.
+ * */
+public class ExceptionMatcher {
+    private static final String METACHARACTERS = "\\^$.|?*+()[]{}";
+
+    private final LiteralAutomaton literals;
+    private final List<Pattern> regexes;
+    private final int literalsCount;
+    private final int patternsCount;
+
+    private ExceptionMatcher(LiteralAutomaton literals, int literalsCount, List<Pattern> regexes, int patternsCount) {
+        this.literals = literals;
+        this.literalsCount = literalsCount;
+        this.regexes = regexes;
+        this.patternsCount = patternsCount;
+    }
+
+    public static ExceptionMatcher compile(Collection<String> patterns) {
+        LiteralAutomaton literals = new LiteralAutomaton();
+        int literalsCount = 0;
+        List<String> regexList = new ArrayList<>();
+        for (String pattern : patterns) {
+            String literal = literal(pattern);
+            if (literal != null) {
+                literals.add(literal);
+                literalsCount++;
+            } else {
+                regexList.add(pattern);
+            }
+        }
+        literals.build();
+        return new ExceptionMatcher(literals, literalsCount, combine(regexList), regexList.size());
+    }
+
+    /**
+     * @return true, если имя содержит совпадение хотя бы с одним шаблоном
+     * */
+    public boolean find(CharSequence name) {
+        if (literals.find(name))
+            return true;
+        for (Pattern regex : regexes) {
+            if (regex.matcher(name).find())
+                return true;
+        }
+        return false;
+    }
+
+    public int getLiteralsCount() {
+        return literalsCount;
+    }
+
+    public int getRegexCount() {
+        return patternsCount;
+    }
+
+    /**
+     * Строка шаблона без метасимволов (экранированные символы, кроме букв и цифр, разрешены) или null
+     * */
+    static String literal(String pattern) {
+        StringBuilder literal = new StringBuilder(pattern.length());
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1)))
+                    return null;
+                literal.append(pattern.charAt(++i));
+            } else if (METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Регулярные выражения: объединяемые - одна альтернатива, с обратными ссылками - отдельно
+     * */
+    private static List<Pattern> combine(List<String> regexList) {
+        List<Pattern> regexes = new ArrayList<>();
+        StringBuilder alternation = new StringBuilder();
+        List<String> combined = new ArrayList<>();
+        for (String regex : regexList) {
+            if (regex.matches(".*\\\\([1-9]|k<).*")) {
+                regexes.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+            } else {
+                Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+                if (alternation.length() > 0)
+                    alternation.append('|');
+                alternation.append("(?:").append(regex).append(')');
+                combined.add(regex);
+            }
+        }
+        if (combined.size() == 1) {
+            regexes.add(0, Pattern.compile(combined.get(0), Pattern.CASE_INSENSITIVE));
+        } else if (combined.size() > 1) {
+            try {
+                regexes.add(0, Pattern.compile(alternation.toString(), Pattern.CASE_INSENSITIVE));
+            } catch (PatternSyntaxException pse) {
+                for (int i = 0; i < combined.size(); i++)
+                    regexes.add(i, Pattern.compile(combined.get(i), Pattern.CASE_INSENSITIVE));
+            }
+        }
+        return regexes;
+    }
+
+    /**
+     * Автомат Ахо-Корасик по символам без учета регистра латинских букв.
+     * Переходы хранятся в хеш-таблице с ключом (состояние, символ), состояние с совпадением помечается вместе с состояниями,
+     * которые ссылаются на него по ссылкам неудачи, поэтому проверка останавливается на первом совпадении.
+     * */
+    private static final class LiteralAutomaton {
+        private static final int ROOT = 0;
+        private static final int NONE = -1;
+
+        private long[] keys = new long[1024];
+        private int[] targets = new int[1024];
+        private int transitionsCount = 0;
+        private int statesCount = 1;
+        private boolean[] terminal = new boolean[64];
+        private int[] fail = new int[0];
+        private final List<int[]> children = new ArrayList<>();
+
+        void add(String literal) {
+            int state = ROOT;
+            for (int i = 0; i < literal.length(); i++) {
+                char c = fold(literal.charAt(i));
+                int next = transition(state, c);
+                if (next == NONE) {
+                    next = statesCount++;
+                    if (next == terminal.length)
+                        terminal = Arrays.copyOf(terminal, terminal.length * 2);
+                    putTransition(state, c, next);
+                    addChild(state, c, next);
+                }
+                state = next;
+            }
+            terminal[state] = true;
+        }
+
+        /**
+         * Ссылки неудачи обходом в ширину
+         * */
+        void build() {
+            fail = new int[statesCount];
+            int[] queue = new int[statesCount];
+            int head = 0;
+            int tail = 0;
+            for (int[] child : childrenOf(ROOT)) {
+                fail[child[1]] = ROOT;
+                queue[tail++] = child[1];
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                if (terminal[fail[state]])
+                    terminal[state] = true;
+                for (int[] child : childrenOf(state)) {
+                    char c = (char) child[0];
+                    int f = fail[state];
+                    while (f != ROOT && transition(f, c) == NONE)
+                        f = fail[f];
+                    int target = transition(f, c);
+                    fail[child[1]] = target != NONE ? target : ROOT;
+                    queue[tail++] = child[1];
+                }
+            }
+            children.clear();
+        }
+
+        boolean find(CharSequence text) {
+            if (terminal[ROOT])
+                return true;
+            int state = ROOT;
+            for (int i = 0; i < text.length(); i++) {
+                char c = fold(text.charAt(i));
+                int next = transition(state, c);
+                while (next == NONE && state != ROOT) {
+                    state = fail[state];
+                    next = transition(state, c);
+                }
+                state = next == NONE ? ROOT : next;
+                if (terminal[state])
+                    return true;
+            }
+            return false;
+        }
+
+        private static char fold(char c) {
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+
+        private int transition(int state, char c) {
+            if (transitionsCount == 0)
+                return NONE;
+            long key = key(state, c);
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != 0L) {
+                if (keys[slot] == key)
+                    return targets[slot];
+                slot = (slot + 1) & mask;
+            }
+            return NONE;
+        }
+
+        private void putTransition(int state, char c, int target) {
+            if ((transitionsCount + 1) * 2 > keys.length) {
+                long[] oldKeys = keys;
+                int[] oldTargets = targets;
+                keys = new long[oldKeys.length * 2];
+                targets = new int[oldKeys.length * 2];
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != 0L)
+                        insert(oldKeys[i], oldTargets[i]);
+                }
+            }
+            insert(key(state, c), target);
+            transitionsCount++;
+        }
+
+        private void insert(long key, int target) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != 0L)
+                slot = (slot + 1) & mask;
+            keys[slot] = key;
+            targets[slot] = target;
+        }
+
+        /**
+         * Ключ перехода; старший бит отличает ключ от пустой ячейки
+         * */
+        private static long key(int state, char c) {
+            return Long.MIN_VALUE | ((long) state << 16) | c;
+        }
+
+        private static int slot(long key, int mask) {
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & mask;
+        }
+
+        private void addChild(int state, char c, int child) {
+            while (children.size() <= state)
+                children.add(null);
+            int[] list = children.get(state);
+            int length = list == null ? 0 : list.length;
+            int[] grown = list == null ? new int[2] : Arrays.copyOf(list, length + 2);
+            grown[length] = c;
+            grown[length + 1] = child;
+            children.set(state, grown);
+        }
+
+        private List<int[]> childrenOf(int state) {
+            List<int[]> result = new ArrayList<>();
+            int[] list = state < children.size() ? children.get(state) : null;
+            if (list != null) {
+                for (int i = 0; i < list.length; i += 2)
+                    result.add(new int[]{list[i], list[i + 1]});
+            }
+            return result;
+        }
+    }
+}
@@ -2,21 +2,60 @@ package ru.asb.dataset.filters;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetView;
+import ru.asb.dataset.LastUsedIndex;
+import ru.asb.dataset.parsers.ListingTimestamp;
 import ru.asb.util.Unit;
 import ru.asb.util.Util;
 
-import java.util.Collection;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
+/**
+ * План фильтрации дата-сетов.
+ * Условия задаются цепочкой вызовов и подготавливаются один раз: регулярные выражения компилируются,
+ * список фильтра становится хеш-множеством, текущее время фиксируется. При получении списка все условия
+ * проверяются на равномерной выборке из {@link #SAMPLE_SIZE} дата-сетов, затем упорядочиваются по стоимости проверки,
+ * деленной на долю отсеянных в выборке (флаг, отсеивающий большинство, проверяется раньше регулярного выражения,
+ * которое почти все пропускает); при равной оценке - в порядке вызовов.
+ * План и количество дата-сетов до и после каждого условия выводятся в лог.
+ * Если фильтр создан по индексу {@link LastUsedIndex}, просроченные дата-сеты выбираются двоичным поиском до проверки условий.
+ * */
 public class Filter {
     private static final Logger log = LogManager.getLogger(Filter.class);
-    private Stream<Dataset> stream;
+    /**
+     * Размер выборки для оценки доли прошедших каждое условие
+     * */
+    static final int SAMPLE_SIZE = 1024;
+    private final Collection<DatasetView> datasetList;
+    private final List<FilterStep> steps = new ArrayList<>();
+    private List<FilterStep> plan = null;
+    private final LastUsedIndex index;
+    //Срок хранения, по которому выбирается диапазон индекса, или -1
+    private int rangeDays = -1;
+    private long rangeNow;
+    private int rangeSize = -1;
+    private boolean parallel = false;
+
+    public Filter(Collection<? extends DatasetView> datasetList) {
+        this.datasetList = Collections.<DatasetView>unmodifiableCollection(datasetList);
+        this.index = null;
+    }
+
+    public Filter(LastUsedIndex index) {
+        this.datasetList = index.getDatasets();
+        this.index = index;
+    }
 
-    public Filter(List<Dataset> datasetList) {
-        this.stream = datasetList.stream();
+    /**
+     * Проверять условия в параллельном потоке; порядок результата сохраняется
+     * */
+    public Filter parallel(boolean parallel) {
+        this.parallel = parallel;
+        return this;
     }
 
     /**
@@ -24,7 +63,13 @@ public class Filter {
      * */
     public Filter expired(int days) {
         log.info("Getting datasets that older {} day(s)", days);
-        stream = stream.filter(dataset -> dataset.isExpired(days));
+        long now = ListingTimestamp.now();
+        if (index != null && rangeDays < 0) {
+            rangeDays = days;
+            rangeNow = now;
+        } else {
+            steps.add(new FilterStep(String.format("expired(%d days)", days), FilterStep.COST_NUMERIC, dataset -> dataset.isExpired(days, now)));
+        }
         return this;
     }
 
@@ -34,7 +79,9 @@ public class Filter {
     public Filter notIn(Collection<String> exceptions) {
         if (exceptions != null && exceptions.size() > 0) {
             log.info("Check for exceptions...");
-            stream = stream.filter(dataset -> !dataset.inExceptions(exceptions));
+            ExceptionMatcher matcher = ExceptionMatcher.compile(exceptions);
+            steps.add(new FilterStep(String.format("notIn(%d literals, %d regexes)", matcher.getLiteralsCount(), matcher.getRegexCount()),
+                    FilterStep.COST_REGEX, dataset -> !matcher.find(dataset.getName())));
         }
         return this;
     }
@@ -45,7 +92,8 @@ public class Filter {
     public Filter matched(String regex) {
         if (regex != null) {
             log.info("Getting datasets that matches to regular expression: {}", regex);
-            stream = stream.filter(dataset -> dataset.matches(regex));
+            Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            steps.add(new FilterStep(String.format("matched(%s)", regex), FilterStep.COST_REGEX, dataset -> dataset.matches(pattern)));
         }
         return this;
     }
@@ -56,7 +104,7 @@ public class Filter {
     public Filter orphans(boolean searchOrphans) {
         if (searchOrphans) {
             log.info("Getting orphans...");
-            stream = stream.filter(Dataset::isOrphan);
+            steps.add(new FilterStep("orphans", FilterStep.COST_FLAG, DatasetView::isOrphan));
         }
         return this;
     }
@@ -67,7 +115,7 @@ public class Filter {
     public Filter full(boolean searchFull) {
         if (searchFull) {
             log.info("Getting full datasets...");
-            stream = stream.filter(dataset -> !dataset.isOrphan());
+            steps.add(new FilterStep("full", FilterStep.COST_FLAG, dataset -> !dataset.isOrphan()));
         }
         return this;
     }
@@ -78,14 +126,104 @@ public class Filter {
     public Filter onlyIn(List<String> filterList) {
         if (filterList != null && filterList.size() > 0) {
             log.info("Filtering datasets...");
-            stream = stream.filter(dataset -> dataset.inFilter(filterList));
+            Set<String> filterSet = new HashSet<>(filterList);
+            steps.add(new FilterStep(String.format("onlyIn(%d names)", filterSet.size()), FilterStep.COST_HASH, dataset -> dataset.inFilter(filterSet)));
         }
         return this;
     }
 
-    public List<Dataset> getList() {
-        List<Dataset> resultList = stream.collect(Collectors.toList());
-        log.info("Filtered datasets count: {} | {} Gb", resultList.size(), String.format("%6.3f", Util.getDsListSize(resultList, Unit.GIGABYTE)));
-        return resultList;
+    /**
+     * Равномерная выборка: каждый size / SAMPLE_SIZE-й дата-сет. Источник отсортирован по имени,
+     * поэтому первые дата-сеты - один участок имен и смещают оценку условий по именам.
+     * */
+    private static List<DatasetView> sample(Collection<DatasetView> source) {
+        int size = source.size();
+        int stride = Math.max(1, size / SAMPLE_SIZE);
+        List<DatasetView> sample = new ArrayList<>(Math.min(size, SAMPLE_SIZE));
+        if (source instanceof List && source instanceof RandomAccess) {
+            List<DatasetView> list = (List<DatasetView>) source;
+            for (int i = 0; i < size && sample.size() < SAMPLE_SIZE; i += stride)
+                sample.add(list.get(i));
+            return sample;
+        }
+        int i = 0;
+        for (Iterator<DatasetView> iterator = source.iterator(); iterator.hasNext() && sample.size() < SAMPLE_SIZE; i++) {
+            DatasetView dataset = iterator.next();
+            if (i % stride == 0)
+                sample.add(dataset);
+        }
+        return sample;
+    }
+
+    /**
+     * Условия в порядке проверки. Доля прошедших оценивается на выборке из источника;
+     * до оценки (source == null) условия упорядочены только по стоимости.
+     * */
+    private List<FilterStep> plan(Collection<DatasetView> source) {
+        List<FilterStep> plan = new ArrayList<>(steps);
+        if (source != null && plan.size() > 1) {
+            List<DatasetView> sample = sample(source);
+            for (FilterStep step : plan)
+                step.sample(sample);
+        }
+        plan.sort(Comparator.comparingDouble(FilterStep::getRank));
+        return plan;
+    }
+
+    /**
+     * План фильтрации; после {@link #getList()} - с количеством дата-сетов до и после каждого условия
+     * */
+    public String explain() {
+        StringBuilder explain = new StringBuilder("Filter plan").append(parallel ? " (parallel):" : ":");
+        int i = 0;
+        if (rangeDays >= 0) {
+            explain.append("\n  ").append(++i).append(". expired(").append(rangeDays).append(" days) by index");
+            if (rangeSize >= 0)
+                explain.append(": ").append(datasetList.size()).append(" -> ").append(rangeSize);
+        }
+        for (FilterStep step : plan != null ? plan : plan(null)) {
+            explain.append("\n  ").append(++i).append(". ").append(step.getDescription());
+            if (step.getRowsIn() > 0)
+                explain.append(": ").append(step.getRowsIn()).append(" -> ").append(step.getRowsOut());
+        }
+        return explain.toString();
+    }
+
+    public List<DatasetView> getList() {
+        return getResult().getList();
+    }
+
+    /**
+     * Список дата-сетов и показатели результата за один проход
+     * */
+    public FilterResult getResult() {
+        FilterResult result = collect(FilterResult::new, FilterResult::add, FilterResult::combine);
+        log.info("Filtered datasets count: {} | {} Gb", result.getCount(), String.format("%6.3f", Util.size(result.getTotalSize(), Unit.GIGABYTE)));
+        if (result.getCount() > 0) {
+            log.info("Orphans: {} | {} Gb, full: {} | {} Gb", result.getOrphansCount(), String.format("%6.3f", Util.size(result.getOrphansSize(), Unit.GIGABYTE)),
+                    result.getFullCount(), String.format("%6.3f", Util.size(result.getFullSize(), Unit.GIGABYTE)));
+            log.info("Last used from {} to {}", ListingTimestamp.toDateTime(result.getMinLastUsed()), ListingTimestamp.toDateTime(result.getMaxLastUsed()));
+        }
+        return result;
+    }
+
+    /**
+     * Собирает прошедшие фильтр дата-сеты без построения списка (например, в ограниченную кучу {@link ru.asb.dataset.TopK}).
+     * Параметры как у {@link Stream#collect(Supplier, BiConsumer, BiConsumer)}.
+     * */
+    public <R> R collect(Supplier<R> supplier, BiConsumer<R, ? super DatasetView> accumulator, BiConsumer<R, R> combiner) {
+        Collection<DatasetView> source = datasetList;
+        if (rangeDays >= 0) {
+            source = index.expired(rangeDays, rangeNow);
+            rangeSize = source.size();
+        }
+        plan = plan(source);
+        Stream<DatasetView> stream = parallel ? source.parallelStream() : source.stream();
+        for (FilterStep step : plan)
+            stream = stream.filter(step);
+        long start = System.currentTimeMillis();
+        R result = stream.collect(supplier, accumulator, combiner);
+        log.info("{}\nFiltered in {} ms", explain(), System.currentTimeMillis() - start);
+        return result;
     }
 }
@@ -0,0 +1,107 @@
+package ru.asb.dataset.filters;
+
+import ru.asb.dataset.DatasetView;
+import ru.asb.dataset.parsers.ListingTimestamp;
+
+import java.util.*;
+
+/**
+ * Результат фильтрации: список дата-сетов и показатели, посчитанные при том же проходе.
+ * Размер дата-сета по папкам учитывается в папке дескриптора, у сирот - в первой папке данных.
+ * При параллельной фильтрации частичные результаты объединяются {@link #combine(FilterResult)} с сохранением порядка.
+ * */
+public class FilterResult {
+    private final List<DatasetView> list = new ArrayList<>();
+    private long totalSize = 0L;
+    private long orphansCount = 0L;
+    private long orphansSize = 0L;
+    private long minLastUsed = ListingTimestamp.NO_DATE;
+    private long maxLastUsed = ListingTimestamp.NO_DATE;
+    private final Map<String, Long> folderSizes = new TreeMap<>();
+
+    void add(DatasetView dataset) {
+        list.add(dataset);
+        long size = dataset.size();
+        totalSize += size;
+        String folder = dataset.getDescriptorFolder();
+        if (folder == null) {
+            orphansCount++;
+            orphansSize += size;
+            List<String> dataFolders = dataset.getDataFolders();
+            if (!dataFolders.isEmpty())
+                folder = dataFolders.get(0);
+        }
+        if (folder != null)
+            folderSizes.merge(folder, size, Long::sum);
+        long lastUsed = dataset.getLastUsedEpoch();
+        if (lastUsed != ListingTimestamp.NO_DATE) {
+            if (minLastUsed == ListingTimestamp.NO_DATE || lastUsed < minLastUsed)
+                minLastUsed = lastUsed;
+            if (maxLastUsed == ListingTimestamp.NO_DATE || lastUsed > maxLastUsed)
+                maxLastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Добавляет результат следующей части потока
+     * */
+    FilterResult combine(FilterResult next) {
+        list.addAll(next.list);
+        totalSize += next.totalSize;
+        orphansCount += next.orphansCount;
+        orphansSize += next.orphansSize;
+        if (next.minLastUsed != ListingTimestamp.NO_DATE && (minLastUsed == ListingTimestamp.NO_DATE || next.minLastUsed < minLastUsed))
+            minLastUsed = next.minLastUsed;
+        if (next.maxLastUsed != ListingTimestamp.NO_DATE && (maxLastUsed == ListingTimestamp.NO_DATE || next.maxLastUsed > maxLastUsed))
+            maxLastUsed = next.maxLastUsed;
+        for (Map.Entry<String, Long> folderSize : next.folderSizes.entrySet())
+            folderSizes.merge(folderSize.getKey(), folderSize.getValue(), Long::sum);
+        return this;
+    }
+
+    public List<DatasetView> getList() {
+        return list;
+    }
+
+    public int getCount() {
+        return list.size();
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public long getOrphansCount() {
+        return orphansCount;
+    }
+
+    public long getOrphansSize() {
+        return orphansSize;
+    }
+
+    public long getFullCount() {
+        return list.size() - orphansCount;
+    }
+
+    public long getFullSize() {
+        return totalSize - orphansSize;
+    }
+
+    /**
+     * Самая ранняя дата использования в секундах эпохи или {@link ListingTimestamp#NO_DATE}
+     * */
+    public long getMinLastUsed() {
+        return minLastUsed;
+    }
+
+    /**
+     * Самая поздняя дата использования в секундах эпохи или {@link ListingTimestamp#NO_DATE}
+     * */
+    public long getMaxLastUsed() {
+        return maxLastUsed;
+    }
+
+    public Map<String, Long> getFolderSizes() {
+        return Collections.unmodifiableMap(folderSizes);
+    }
+}
@@ -0,0 +1,81 @@
+package ru.asb.dataset.filters;
+
+import ru.asb.dataset.DatasetView;
+
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Шаг плана фильтрации: условие со стоимостью проверки, долей прошедших в выборке
+ * и счетчиками входящих и прошедших дата-сетов
+ * */
+class FilterStep implements Predicate<DatasetView> {
+    /**
+     * Стоимость проверки: флаг, сравнение чисел, поиск в хеш-множестве, регулярное выражение
+     * */
+    static final int COST_FLAG = 0;
+    static final int COST_NUMERIC = 1;
+    static final int COST_HASH = 2;
+    static final int COST_REGEX = 3;
+    /**
+     * Нижняя граница доли отсеянных: условие, которое в выборке ничего не отсеяло, проверяется последним
+     * */
+    private static final double MIN_REJECT_RATE = 1e-3;
+
+    private final String description;
+    private final int cost;
+    private final Predicate<DatasetView> predicate;
+    private final LongAdder rowsIn = new LongAdder();
+    private final LongAdder rowsOut = new LongAdder();
+    private double passRate = 0.0;
+
+    FilterStep(String description, int cost, Predicate<DatasetView> predicate) {
+        this.description = description;
+        this.cost = cost;
+        this.predicate = predicate;
+    }
+
+    @Override
+    public boolean test(DatasetView dataset) {
+        rowsIn.increment();
+        boolean passed = predicate.test(dataset);
+        if (passed)
+            rowsOut.increment();
+        return passed;
+    }
+
+    /**
+     * Оценивает долю прошедших условие; счетчики плана не изменяются
+     * */
+    void sample(List<DatasetView> sample) {
+        if (sample.isEmpty())
+            return;
+        int passed = 0;
+        for (DatasetView dataset : sample) {
+            if (predicate.test(dataset))
+                passed++;
+        }
+        passRate = (double) passed / sample.size();
+    }
+
+    /**
+     * Ожидаемая стоимость отсеивания одного дата-сета: относительная стоимость проверки (1, 4, 16, 64),
+     * деленная на долю отсеянных. Без выборки - только стоимость проверки.
+     * */
+    double getRank() {
+        return (1 << (cost * 2)) / Math.max(1.0 - passRate, MIN_REJECT_RATE);
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    long getRowsIn() {
+        return rowsIn.sum();
+    }
+
+    long getRowsOut() {
+        return rowsOut.sum();
+    }
+}
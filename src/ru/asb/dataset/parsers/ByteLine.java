@@ -0,0 +1,59 @@
+package ru.asb.dataset.parsers;
+
+import java.nio.charset.Charset;
+
+/**
+ * Строка листинга поверх массива байт без декодирования.
+ * Каждый байт представлен символом (разделители листинга - ASCII), декодирование в String выполняется только
+ * в {@link #toString()} для выделяемых частей строки (имя, папка).
+ * Объект переиспользуется читателем для каждой следующей строки, поэтому его нельзя хранить между строками.
+ * */
+public final class ByteLine implements CharSequence {
+    private static final Charset charset = Charset.defaultCharset();
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    public ByteLine() {
+        this(new byte[0], 0, 0);
+    }
+
+    public ByteLine(byte[] bytes, int offset, int length) {
+        set(bytes, offset, length);
+    }
+
+    public ByteLine set(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (bytes[offset + index] & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new ByteLine(bytes, offset + start, end - start);
+    }
+
+    /**
+     * Декодирует часть строки [start, end) в кодировке платформы (как FileReader)
+     * */
+    public String text(int start, int end) {
+        return new String(bytes, offset + start, end - start, charset);
+    }
+
+    @Override
+    public String toString() {
+        return text(0, length);
+    }
+}
@@ -0,0 +1,17 @@
+package ru.asb.dataset.parsers;
+
+import ru.asb.dataset.Dataset;
+
+/**
+ * Разбор строки листинга в дата-сет.
+ * Реализации должны быть потокобезопасными: один парсер может использоваться несколькими коллекторами.
+ * */
+@FunctionalInterface
+public interface DatasetLineParser {
+    /**
+     * @param line строка листинга без символа конца строки;
+     * @param isDescriptor true, если строка из листинга папки дескрипторов;
+     * @return дата-сет или null, если строка не распознана.
+     * */
+    Dataset parse(CharSequence line, boolean isDescriptor);
+}
@@ -0,0 +1,144 @@
+package ru.asb.dataset.parsers;
+
+import ru.asb.dataset.Dataset;
+
+import static ru.asb.dataset.parsers.ListingTimestamp.isDigit;
+import static ru.asb.dataset.parsers.ListingTimestamp.isSpace;
+
+/**
+ * Разбор строки листинга find -ls (формат ds.parser.* по умолчанию) проходом по позициям символов, без регулярных выражений.
+ * <pre>
+ * inode blocks permissions links owner group SIZE MMM dd HH:mm|yyyy /FOLDER/NAME.ds[INVOCATION]
+ * </pre>
+ * Строки, которые не удалось однозначно разобрать, передаются запасному парсеру.
+ * */
+public class FindLsLineParser implements DatasetLineParser {
+    private static final String[] EXTENSIONS = {
+            ".ds", ".dS", ".Ds", ".DS",
+            "_ds", "_dS", "_Ds", "_DS",
+            "|ds", "|dS", "|Ds", "|DS"};
+
+    private final DatasetLineParser fallback;
+    private final TimestampDecoder timestampDecoder;
+
+    public FindLsLineParser(DatasetLineParser fallback, TimestampDecoder timestampDecoder) {
+        this.fallback = fallback;
+        this.timestampDecoder = timestampDecoder;
+    }
+
+    @Override
+    public Dataset parse(CharSequence line, boolean isDescriptor) {
+        int length = line.length();
+
+        int pathStart = 0;
+        while (pathStart < length && !isSlash(line.charAt(pathStart)))
+            pathStart++;
+        if (pathStart == length)
+            return fallback.parse(line, isDescriptor);
+
+        int nameStart = length;
+        while (!isSlash(line.charAt(nameStart - 1)))
+            nameStart--;
+        int extensionStart = indexOfExtension(line, nameStart + 1, length);
+        if (extensionStart < 0)
+            return fallback.parse(line, isDescriptor);
+
+        int nameFrom = nameStart;
+        int nameTo = extensionStart;
+        while (nameFrom < nameTo && isSpace(line.charAt(nameFrom)))
+            nameFrom++;
+        while (nameTo > nameFrom && isSpace(line.charAt(nameTo - 1)))
+            nameTo--;
+        if (nameFrom == nameTo)
+            return fallback.parse(line, isDescriptor);
+
+        long size = 0L;
+        long lastUsed = ListingTimestamp.NO_DATE;
+        if (pathStart > 0 && isSpace(line.charAt(pathStart - 1))) {
+            // Разбор с конца: размер, месяц, день, время или год
+            int dateEnd = skipSpacesBack(line, pathStart);
+            int timeStart = tokenStart(line, dateEnd);
+            int dayEnd = skipSpacesBack(line, timeStart);
+            int dayStart = tokenStart(line, dayEnd);
+            int monthEnd = skipSpacesBack(line, dayStart);
+            int monthStart = tokenStart(line, monthEnd);
+            int sizeEnd = skipSpacesBack(line, monthStart);
+            int sizeStart = tokenStart(line, sizeEnd);
+            if (sizeStart == sizeEnd || monthEnd - monthStart != 3)
+                return fallback.parse(line, isDescriptor);
+            for (int i = sizeStart; i < sizeEnd; i++) {
+                char c = line.charAt(i);
+                if (!isDigit(c))
+                    return fallback.parse(line, isDescriptor);
+                size = size * 10 + (c - '0');
+            }
+            lastUsed = timestampDecoder.decode(line, monthStart, dateEnd);
+            if (lastUsed == ListingTimestamp.NO_DATE)
+                return fallback.parse(line, isDescriptor);
+        }
+
+        int invocationFrom = extensionStart + 3;
+        int invocationTo = length;
+        while (invocationFrom < invocationTo && isSpace(line.charAt(invocationFrom)))
+            invocationFrom++;
+        while (invocationTo > invocationFrom && isSpace(line.charAt(invocationTo - 1)))
+            invocationTo--;
+
+        return new Dataset(text(line, pathStart, nameStart), text(line, nameFrom, nameTo), extension(line, extensionStart),
+                text(line, invocationFrom, invocationTo), size, lastUsed, isDescriptor);
+    }
+
+    /**
+     * Позиция первого вхождения [.|_]ds, за которым нет буквы или цифры
+     * */
+    static int indexOfExtension(CharSequence line, int from, int to) {
+        for (int i = from; i + 3 <= to; i++) {
+            char c = line.charAt(i);
+            if ((c == '.' || c == '_' || c == '|')
+                    && (line.charAt(i + 1) == 'd' || line.charAt(i + 1) == 'D')
+                    && (line.charAt(i + 2) == 's' || line.charAt(i + 2) == 'S')
+                    && (i + 3 == to || !isWordChar(line.charAt(i + 3))))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Расширение [.|_]ds из таблицы, без создания строки
+     * */
+    static String extension(CharSequence line, int start) {
+        char separator = line.charAt(start);
+        int index = separator == '.' ? 0 : separator == '_' ? 4 : 8;
+        if (line.charAt(start + 1) == 'D') index += 2;
+        if (line.charAt(start + 2) == 'S') index += 1;
+        return EXTENSIONS[index];
+    }
+
+    static String text(CharSequence line, int from, int to) {
+        if (from == to)
+            return "";
+        if (line instanceof ByteLine)
+            return ((ByteLine) line).text(from, to);
+        return line.subSequence(from, to).toString();
+    }
+
+    private static int skipSpacesBack(CharSequence line, int pos) {
+        while (pos > 0 && isSpace(line.charAt(pos - 1)))
+            pos--;
+        return pos;
+    }
+
+    private static int tokenStart(CharSequence line, int end) {
+        while (end > 0 && !isSpace(line.charAt(end - 1)))
+            end--;
+        return end;
+    }
+
+    private static boolean isSlash(char c) {
+        return c == '/' || c == '\\';
+    }
+
+    private static boolean isWordChar(char c) {
+        return c == '_' || c >= 0x80 || Character.isLetterOrDigit(c);
+    }
+}
@@ -0,0 +1,138 @@
+package ru.asb.dataset.parsers;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneRules;
+
+/**
+ * Разбор даты из листинга find -ls без DateTimeFormatter.
+ * Поддерживаются форматы "MMM d HH:mm" (файл изменен за последние полгода, год не указан) и "MMM d yyyy".
+ * */
+public final class ListingTimestamp {
+    /**
+     * Дата неизвестна (в строке листинга нет даты)
+     * */
+    public static final long NO_DATE = Long.MIN_VALUE;
+    public static final long SECONDS_PER_DAY = 86400L;
+    private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+    private static final ZoneRules zoneRules = ZoneId.systemDefault().getRules();
+
+    private ListingTimestamp() {
+    }
+
+    /**
+     * Разбирает дату из части строки [from, to).
+     * Если год не указан, берется год из now, а если дата получилась позже now - предыдущий год.
+     * @return дата или null, если строка не является датой.
+     * */
+    public static LocalDateTime decode(CharSequence text, int from, int to, LocalDateTime now) {
+        int pos = skipSpaces(text, from, to);
+        if (to - pos < 3)
+            return null;
+        int month = month(text.charAt(pos), text.charAt(pos + 1), text.charAt(pos + 2));
+        if (month == 0)
+            return null;
+        pos = skipSpaces(text, pos + 3, to);
+
+        int day = 0;
+        int dayStart = pos;
+        while (pos < to && isDigit(text.charAt(pos)))
+            day = day * 10 + (text.charAt(pos++) - '0');
+        if (pos - dayStart < 1 || pos - dayStart > 2 || day < 1 || day > 31)
+            return null;
+        pos = skipSpaces(text, pos, to);
+
+        int end = to;
+        while (end > pos && isSpace(text.charAt(end - 1)))
+            end--;
+        int length = end - pos;
+        if (length == 5 && text.charAt(pos + 2) == ':') {
+            int hour = twoDigits(text, pos);
+            int minute = twoDigits(text, pos + 3);
+            if (hour < 0 || hour > 23 || minute < 0 || minute > 59)
+                return null;
+            LocalDateTime dateTime = of(now.getYear(), month, day, hour, minute);
+            if (dateTime.isAfter(now))
+                dateTime = of(now.getYear() - 1, month, day, hour, minute);
+            return dateTime;
+        } else if (length == 4) {
+            int year = twoDigits(text, pos);
+            int yearLow = twoDigits(text, pos + 2);
+            if (year < 0 || yearLow < 0)
+                return null;
+            return of(year * 100 + yearLow, month, day, 0, 0);
+        }
+        return null;
+    }
+
+    /**
+     * Секунды эпохи локального времени сервера. Смещение не учитывается: даты листинга и "сейчас" сравниваются в одной шкале.
+     * */
+    public static long toEpoch(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    /**
+     * Секунды эпохи UTC (find -printf %T@) в шкале {@link #toEpoch(LocalDateTime)}: локальное время этой машины
+     * */
+    public static long fromUnixEpoch(long unixEpoch) {
+        return unixEpoch + zoneRules.getOffset(Instant.ofEpochSecond(unixEpoch)).getTotalSeconds();
+    }
+
+    public static LocalDateTime toDateTime(long epoch) {
+        return epoch == NO_DATE ? null : LocalDateTime.ofEpochSecond(epoch, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * Текущее время в секундах эпохи
+     * */
+    public static long now() {
+        return toEpoch(LocalDateTime.now());
+    }
+
+    /**
+     * Номер месяца по английскому сокращению без учета регистра, 0 если сокращение неизвестно.
+     * */
+    static int month(char c1, char c2, char c3) {
+        c1 = Character.toLowerCase(c1);
+        c2 = Character.toLowerCase(c2);
+        c3 = Character.toLowerCase(c3);
+        for (int i = 0; i < MONTHS.length(); i += 3) {
+            if (MONTHS.charAt(i) == c1 && MONTHS.charAt(i + 1) == c2 && MONTHS.charAt(i + 2) == c3)
+                return i / 3 + 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Число дней месяца приводится к допустимому, как при разборе DateTimeFormatter в режиме SMART (29 февраля невисокосного года)
+     * */
+    private static LocalDateTime of(int year, int month, int day, int hour, int minute) {
+        return LocalDateTime.of(year, month, Math.min(day, YearMonth.of(year, month).lengthOfMonth()), hour, minute);
+    }
+
+    private static int twoDigits(CharSequence text, int pos) {
+        char c1 = text.charAt(pos);
+        char c2 = text.charAt(pos + 1);
+        if (!isDigit(c1) || !isDigit(c2))
+            return -1;
+        return (c1 - '0') * 10 + (c2 - '0');
+    }
+
+    private static int skipSpaces(CharSequence text, int pos, int to) {
+        while (pos < to && isSpace(text.charAt(pos)))
+            pos++;
+        return pos;
+    }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == '\u000B';
+    }
+}
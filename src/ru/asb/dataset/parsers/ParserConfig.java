@@ -0,0 +1,107 @@
+package ru.asb.dataset.parsers;
+
+import ru.asb.Main;
+
+import java.time.LocalDateTime;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Неизменяемые настройки парсера строк листинга (ds.parser.*).
+ * Загружаются один раз при первом обращении, поэтому безопасны для использования из нескольких потоков.
+ * */
+public final class ParserConfig {
+    public static final String TYPE_LS = "ls";
+    public static final String TYPE_REGEX = "regex";
+    public static final String TYPE_PRINTF = "printf";
+
+    private final String type;
+    private final Pattern pattern;
+    private final int sizeGroup;
+    private final int lastUsedGroup;
+    private final int folderGroup;
+    private final int nameGroup;
+    private final int extensionGroup;
+    private final int invocationGroup;
+
+    private ParserConfig(Properties properties) {
+        this.type = properties.getProperty("ds.parser.type", TYPE_LS).trim().toLowerCase();
+        this.pattern = Pattern.compile(properties.getProperty("ds.parser.regex"), Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+        this.sizeGroup = Integer.parseInt(properties.getProperty("ds.parser.group.size").trim());
+        this.lastUsedGroup = Integer.parseInt(properties.getProperty("ds.parser.group.lastUse").trim());
+        this.folderGroup = Integer.parseInt(properties.getProperty("ds.parser.group.folder").trim());
+        this.nameGroup = Integer.parseInt(properties.getProperty("ds.parser.group.name").trim());
+        this.extensionGroup = Integer.parseInt(properties.getProperty("ds.parser.group.extension").trim());
+        this.invocationGroup = Integer.parseInt(properties.getProperty("ds.parser.group.invocation").trim());
+    }
+
+    /**
+     * Настройки из system.properties
+     * */
+    public static ParserConfig get() {
+        return Holder.INSTANCE;
+    }
+
+    public static ParserConfig of(Properties properties) {
+        return new ParserConfig(properties);
+    }
+
+    /**
+     * Создает парсер в соответствии с ds.parser.type.
+     * Текущее время для разбора дат фиксируется в момент создания парсера.
+     * */
+    public DatasetLineParser newParser() {
+        TimestampDecoder timestampDecoder = new TimestampDecoder(LocalDateTime.now());
+        RegexLineParser regexParser = new RegexLineParser(this, timestampDecoder);
+        switch (type) {
+            case TYPE_REGEX: return regexParser;
+            case TYPE_LS: return new FindLsLineParser(regexParser, timestampDecoder);
+            case TYPE_PRINTF: return new PrintfLineParser(new FindLsLineParser(regexParser, timestampDecoder));
+            default: throw new IllegalArgumentException("Unknown ds.parser.type: " + type);
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    public int getSizeGroup() {
+        return sizeGroup;
+    }
+
+    public int getLastUsedGroup() {
+        return lastUsedGroup;
+    }
+
+    public int getFolderGroup() {
+        return folderGroup;
+    }
+
+    public int getNameGroup() {
+        return nameGroup;
+    }
+
+    public int getExtensionGroup() {
+        return extensionGroup;
+    }
+
+    public int getInvocationGroup() {
+        return invocationGroup;
+    }
+
+    /**
+     * Строка, по которой определяется, что дата-сеты разобраны теми же настройками (например, для снимков листингов)
+     * */
+    public String getSignature() {
+        return String.join("|", type, pattern.pattern(), String.valueOf(sizeGroup), String.valueOf(lastUsedGroup), String.valueOf(folderGroup),
+                String.valueOf(nameGroup), String.valueOf(extensionGroup), String.valueOf(invocationGroup));
+    }
+
+    private static class Holder {
+        private static final ParserConfig INSTANCE = new ParserConfig(Main.getSystemProperties());
+    }
+}
@@ -0,0 +1,81 @@
+package ru.asb.dataset.parsers;
+
+import ru.asb.dataset.Dataset;
+
+import static ru.asb.dataset.parsers.ListingTimestamp.isDigit;
+import static ru.asb.dataset.parsers.ListingTimestamp.isSpace;
+
+/**
+ * Разбор записи листинга find -printf '%s\t%T@\t%h/\t%f\0' (ds.parser.type = printf).
+ * <pre>
+ * SIZE \t EPOCH[.fraction] \t /FOLDER/ \t NAME.ds[INVOCATION]
+ * </pre>
+ * Размер и дата читаются как числа, дата не зависит от локали и года. Записи другого формата передаются запасному парсеру.
+ * */
+public class PrintfLineParser implements DatasetLineParser {
+    private static final char SEPARATOR = '\t';
+
+    private final DatasetLineParser fallback;
+
+    public PrintfLineParser(DatasetLineParser fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Dataset parse(CharSequence line, boolean isDescriptor) {
+        int length = line.length();
+
+        int pos = 0;
+        long size = 0L;
+        while (pos < length && isDigit(line.charAt(pos)))
+            size = size * 10 + (line.charAt(pos++) - '0');
+        if (pos == 0 || pos == length || line.charAt(pos) != SEPARATOR)
+            return fallback.parse(line, isDescriptor);
+
+        int epochStart = ++pos;
+        long epoch = 0L;
+        while (pos < length && isDigit(line.charAt(pos)))
+            epoch = epoch * 10 + (line.charAt(pos++) - '0');
+        if (pos == epochStart)
+            return fallback.parse(line, isDescriptor);
+        if (pos < length && line.charAt(pos) == '.') {
+            pos++;
+            while (pos < length && isDigit(line.charAt(pos)))
+                pos++;
+        }
+        if (pos == length || line.charAt(pos) != SEPARATOR)
+            return fallback.parse(line, isDescriptor);
+
+        int folderStart = ++pos;
+        while (pos < length && line.charAt(pos) != SEPARATOR)
+            pos++;
+        if (pos == length || pos == folderStart)
+            return fallback.parse(line, isDescriptor);
+        int folderEnd = pos;
+
+        int fileStart = pos + 1;
+        int extensionStart = FindLsLineParser.indexOfExtension(line, fileStart + 1, length);
+        if (extensionStart < 0)
+            return fallback.parse(line, isDescriptor);
+
+        int nameFrom = fileStart;
+        int nameTo = extensionStart;
+        while (nameFrom < nameTo && isSpace(line.charAt(nameFrom)))
+            nameFrom++;
+        while (nameTo > nameFrom && isSpace(line.charAt(nameTo - 1)))
+            nameTo--;
+        if (nameFrom == nameTo)
+            return fallback.parse(line, isDescriptor);
+
+        int invocationFrom = extensionStart + 3;
+        int invocationTo = length;
+        while (invocationFrom < invocationTo && isSpace(line.charAt(invocationFrom)))
+            invocationFrom++;
+        while (invocationTo > invocationFrom && isSpace(line.charAt(invocationTo - 1)))
+            invocationTo--;
+
+        return new Dataset(FindLsLineParser.text(line, folderStart, folderEnd), FindLsLineParser.text(line, nameFrom, nameTo),
+                FindLsLineParser.extension(line, extensionStart), FindLsLineParser.text(line, invocationFrom, invocationTo),
+                size, ListingTimestamp.fromUnixEpoch(epoch), isDescriptor);
+    }
+}
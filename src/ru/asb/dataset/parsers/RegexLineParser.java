@@ -0,0 +1,43 @@
+package ru.asb.dataset.parsers;
+
+import ru.asb.dataset.Dataset;
+
+import java.util.regex.Matcher;
+
+/**
+ * Разбор строки листинга по регулярному выражению ds.parser.regex.
+ * Используется для нестандартных форматов и как запасной вариант для {@link FindLsLineParser}.
+ * */
+public class RegexLineParser implements DatasetLineParser {
+    private final ParserConfig config;
+    private final TimestampDecoder timestampDecoder;
+
+    public RegexLineParser(ParserConfig config, TimestampDecoder timestampDecoder) {
+        this.config = config;
+        this.timestampDecoder = timestampDecoder;
+    }
+
+    @Override
+    public Dataset parse(CharSequence line, boolean isDescriptor) {
+        Matcher matcher = config.getPattern().matcher(line);
+        if (!matcher.find())
+            return null;
+
+        String potentialName = matcher.group(config.getNameGroup());
+        if (potentialName == null || (potentialName = potentialName.trim()).isEmpty())
+            return null;
+
+        long size = 0L;
+        String sizeStr = matcher.group(config.getSizeGroup());
+        if (sizeStr != null) size = Long.parseLong(sizeStr);
+
+        long lastUsed = ListingTimestamp.NO_DATE;
+        int lastUsedGroup = config.getLastUsedGroup();
+        if (matcher.start(lastUsedGroup) >= 0)
+            lastUsed = timestampDecoder.decode(line, matcher.start(lastUsedGroup), matcher.end(lastUsedGroup));
+
+        String invocation = matcher.group(config.getInvocationGroup());
+        return new Dataset(matcher.group(config.getFolderGroup()), potentialName, matcher.group(config.getExtensionGroup()),
+                invocation == null ? "" : invocation.trim(), size, lastUsed, isDescriptor);
+    }
+}
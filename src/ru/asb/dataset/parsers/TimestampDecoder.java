@@ -0,0 +1,63 @@
+package ru.asb.dataset.parsers;
+
+import java.time.LocalDateTime;
+
+/**
+ * Разбор дат листинга в секунды эпохи с кэшем по исходному тексту даты.
+ * Тысячи файлов листинга имеют одинаковую дату "MMM dd HH:mm", поэтому повторный разбор сводится к поиску в таблице.
+ * Текущее время фиксируется один раз при создании, поэтому правило смены года одинаково для всех строк запуска.
+ * Кэш ограничен по размеру (прямое отображение, новая запись вытесняет старую) и потокобезопасен: записи неизменяемы.
+ * */
+public class TimestampDecoder {
+    private static final int CACHE_SIZE = 4096;
+
+    private final LocalDateTime now;
+    private final Entry[] cache = new Entry[CACHE_SIZE];
+
+    public TimestampDecoder(LocalDateTime now) {
+        this.now = now;
+    }
+
+    /**
+     * @return секунды эпохи или {@link ListingTimestamp#NO_DATE}, если текст [from, to) не является датой.
+     * */
+    public long decode(CharSequence text, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++)
+            hash = 31 * hash + text.charAt(i);
+        int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+
+        Entry entry = cache[index];
+        if (entry != null && entry.matches(text, from, to))
+            return entry.epoch;
+
+        LocalDateTime dateTime = ListingTimestamp.decode(text, from, to, now);
+        long epoch = dateTime == null ? ListingTimestamp.NO_DATE : ListingTimestamp.toEpoch(dateTime);
+        cache[index] = new Entry(text.subSequence(from, to).toString(), epoch);
+        return epoch;
+    }
+
+    public LocalDateTime getNow() {
+        return now;
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final long epoch;
+
+        private Entry(String key, long epoch) {
+            this.key = key;
+            this.epoch = epoch;
+        }
+
+        private boolean matches(CharSequence text, int from, int to) {
+            if (key.length() != to - from)
+                return false;
+            for (int i = from; i < to; i++) {
+                if (key.charAt(i - from) != text.charAt(i))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package ru.asb.dataset.updaters;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.asb.Main;
+import ru.asb.dataset.collectors.MappedListingReader;
+import ru.asb.ssh.SshCommandExecutor;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Обновление листинга папки по изменениям с момента прошлого сканирования.
+ * С сервера получаются только строки файлов, измененных за прошедшие минуты (ssh.command.delta.template),
+ * и список путей существующих файлов (ssh.command.names.template) для обнаружения удаленных файлов.
+ * Прежний листинг дополняется изменениями, строки удаленных и измененных файлов исключаются.
+ * Если количество строк нового листинга не совпадает с количеством путей на сервере
+ * (например, у файла дата изменения в прошлом), нужно выполнить полное сканирование.
+ * Время сканирования хранится рядом с листингом в файле .scan.
+ * */
+class DeltaListing {
+    private static final Logger log = LogManager.getLogger(DeltaListing.class);
+    private static final String SCAN_EXTENSION = ".scan";
+    private static final long MINUTES_MARGIN = 1;
+
+    private final SshCommandExecutor commandExecutor;
+    private final String dirName;
+    private final Path dsFile;
+    private final boolean compressedTransfer;
+
+    DeltaListing(SshCommandExecutor commandExecutor, String dirName, Path dsFile, boolean compressedTransfer) {
+        this.commandExecutor = commandExecutor;
+        this.dirName = dirName;
+        this.dsFile = dsFile;
+        this.compressedTransfer = compressedTransfer;
+    }
+
+    /**
+     * Время начала прошлого сканирования в миллисекундах эпохи или -1, если листинг нельзя обновить по изменениям
+     * */
+    static long lastScanTime(Path dsFile) throws IOException {
+        Path scanFile = scanFile(dsFile);
+        if (Files.notExists(dsFile) || Files.notExists(scanFile))
+            return -1L;
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(scanFile), StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException nfe) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Запоминает время начала сканирования, после которого листинг актуален
+     * */
+    static void saveScanTime(Path dsFile, long scanTime) throws IOException {
+        Files.write(scanFile(dsFile), String.valueOf(scanTime).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static Path scanFile(Path dsFile) {
+        return dsFile.resolveSibling(dsFile.getFileName().toString() + SCAN_EXTENSION);
+    }
+
+    /**
+     * Обновляет листинг по изменениям.
+     * @return false - листинг не изменен, нужно полное сканирование.
+     * */
+    boolean update() throws IOException {
+        long lastScan = lastScanTime(dsFile);
+        if (lastScan < 0)
+            return false;
+        long scanStart = System.currentTimeMillis();
+        long minutes = Math.max(0L, scanStart - lastScan) / 60_000L + 1 + MINUTES_MARGIN;
+
+        Path deltaFile = dsFile.resolveSibling(dsFile.getFileName().toString() + ".delta");
+        Path patchedFile = dsFile.resolveSibling(dsFile.getFileName().toString() + ".tmp");
+        try {
+            String deltaCommand = ServerUpdater.remoteCommand(String.format(Main.getSystemProperties().getProperty("ssh.command.delta.template"), dirName, minutes), compressedTransfer);
+            try (OutputStream deltaOutputStream = ServerUpdater.localOutput(new BufferedOutputStream(Files.newOutputStream(deltaFile)), compressedTransfer)) {
+                commandExecutor.execute(deltaCommand, deltaOutputStream);
+            }
+
+            PathHashSet existingPaths = new PathHashSet();
+            String namesCommand = ServerUpdater.remoteCommand(String.format(Main.getSystemProperties().getProperty("ssh.command.names.template"), dirName), compressedTransfer);
+            try (OutputStream namesOutputStream = ServerUpdater.localOutput(new LineSplittingOutputStream(path -> {
+                if (path.length() > 0)
+                    existingPaths.add(hash(path, 0));
+            }, null), compressedTransfer)) {
+                commandExecutor.execute(namesCommand, namesOutputStream);
+            }
+
+            PathHashSet changedPaths = new PathHashSet();
+            long changedCount = 0;
+            try (MappedListingReader deltaReader = new MappedListingReader(deltaFile)) {
+                CharSequence line;
+                while ((line = deltaReader.readLine()) != null) {
+                    int pathStart = pathStart(line);
+                    if (pathStart >= 0) {
+                        changedPaths.add(hash(line, pathStart));
+                        changedCount++;
+                    }
+                }
+            }
+
+            long keptCount = 0;
+            long removedCount = 0;
+            try (MappedListingReader listingReader = new MappedListingReader(dsFile);
+                 OutputStream patchedOutputStream = new BufferedOutputStream(Files.newOutputStream(patchedFile), 1 << 16)) {
+                CharSequence line;
+                while ((line = listingReader.readLine()) != null) {
+                    int pathStart = pathStart(line);
+                    if (pathStart < 0)
+                        continue;
+                    long pathHash = hash(line, pathStart);
+                    if (existingPaths.contains(pathHash) && !changedPaths.contains(pathHash)) {
+                        write(patchedOutputStream, line);
+                        keptCount++;
+                    } else if (!changedPaths.contains(pathHash)) {
+                        removedCount++;
+                    }
+                }
+                try (MappedListingReader deltaReader = new MappedListingReader(deltaFile)) {
+                    while ((line = deltaReader.readLine()) != null) {
+                        if (pathStart(line) >= 0)
+                            write(patchedOutputStream, line);
+                    }
+                }
+            }
+
+            if (existingPaths.size() == 0 || keptCount + changedCount != existingPaths.size()) {
+                log.info("Delta listing of {} is inconsistent ({} kept + {} changed, {} on server). Full scan is required",
+                        dirName, keptCount, changedCount, existingPaths.size());
+                return false;
+            }
+            Files.move(patchedFile, dsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            saveScanTime(dsFile, scanStart);
+            log.info("Datasets info {} patched for last {} minute(s): {} changed, {} removed", dsFile, minutes, changedCount, removedCount);
+            return true;
+        } finally {
+            Files.deleteIfExists(deltaFile);
+            Files.deleteIfExists(patchedFile);
+        }
+    }
+
+    /**
+     * Начало пути в строке find -ls (первый слеш) или -1
+     * */
+    private static int pathStart(CharSequence line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == '/')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * 64-битный FNV-1a хеш пути от позиции from до конца строки.
+     * Табуляция пропускается: в записи find -printf папка и имя файла разделены табуляцией.
+     * */
+    private static long hash(CharSequence line, int from) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\t')
+                continue;
+            hash ^= c;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void write(OutputStream outputStream, CharSequence line) throws IOException {
+        for (int i = 0; i < line.length(); i++)
+            outputStream.write(line.charAt(i));
+        outputStream.write('\n');
+    }
+
+    /**
+     * Множество хешей путей с открытой адресацией: 8 байт на путь вместо строки
+     */
+    private static final class PathHashSet {
+        private static final long EMPTY = 0L;
+        private long[] table = new long[1 << 16];
+        private int size = 0;
+
+        void add(long hash) {
+            if (hash == EMPTY)
+                hash = 1L;
+            if ((size + 1) * 2 > table.length)
+                resize();
+            if (insert(table, hash))
+                size++;
+        }
+
+        boolean contains(long hash) {
+            if (hash == EMPTY)
+                hash = 1L;
+            int mask = table.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (table[slot] != EMPTY) {
+                if (table[slot] == hash)
+                    return true;
+                slot = (slot + 1) & mask;
+            }
+            return false;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private static boolean insert(long[] table, long hash) {
+            int mask = table.length - 1;
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while (table[slot] != EMPTY) {
+                if (table[slot] == hash)
+                    return false;
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = hash;
+            return true;
+        }
+
+        private void resize() {
+            long[] newTable = new long[table.length * 2];
+            for (long hash : table) {
+                if (hash != EMPTY)
+                    insert(newTable, hash);
+            }
+            table = newTable;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ru.asb.dataset.updaters;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Поток, который распаковывает получаемые данные в формате gzip и передает распакованные байты в out.
+ * Распаковка выполняется по мере записи, без дополнительного потока и буфера всего ответа;
+ * поддерживаются несколько последовательных gzip-блоков, контрольная сумма каждого блока проверяется.
+ * */
+public class GzipInflatingOutputStream extends OutputStream {
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+    private static final int TRAILER_SIZE = 8;
+
+    private enum State {HEADER, EXTRA_LENGTH, EXTRA, NAME, COMMENT, HEADER_CRC, BODY, TRAILER}
+
+    private final OutputStream out;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer = new byte[64 * 1024];
+    private final byte[] trailer = new byte[TRAILER_SIZE];
+
+    private State state = State.HEADER;
+    private int headerPosition = 0;
+    private int flags = 0;
+    private int remaining = 0;
+    private boolean memberStarted = false;
+
+    public GzipInflatingOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            if (state == State.BODY) {
+                off = inflate(b, off, end);
+            } else {
+                off = readHeaderOrTrailer(b[off] & 0xFF, off);
+            }
+        }
+    }
+
+    private int inflate(byte[] b, int off, int end) throws IOException {
+        inflater.setInput(b, off, end - off);
+        try {
+            while (!inflater.finished() && !inflater.needsInput()) {
+                int inflated = inflater.inflate(buffer);
+                if (inflated > 0) {
+                    crc.update(buffer, 0, inflated);
+                    out.write(buffer, 0, inflated);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Unsupported gzip stream: preset dictionary");
+                }
+            }
+        } catch (DataFormatException dfe) {
+            throw new IOException("Corrupted gzip stream: " + dfe.getMessage(), dfe);
+        }
+        if (inflater.finished()) {
+            state = State.TRAILER;
+            headerPosition = 0;
+        }
+        return end - inflater.getRemaining();
+    }
+
+    /**
+     * Разбор заголовка и окончания gzip-блока по одному байту (их размер - несколько байт)
+     * */
+    private int readHeaderOrTrailer(int value, int off) throws IOException {
+        switch (state) {
+            case HEADER:
+                memberStarted = true;
+                if ((headerPosition == 0 && value != 0x1f) || (headerPosition == 1 && value != 0x8b) || (headerPosition == 2 && value != 8))
+                    throw new IOException("Not in gzip format");
+                if (headerPosition == 3)
+                    flags = value;
+                if (++headerPosition == 10)
+                    nextHeaderField(State.HEADER);
+                break;
+            case EXTRA_LENGTH:
+                remaining |= value << (8 * headerPosition);
+                if (++headerPosition == 2) {
+                    state = State.EXTRA;
+                    if (remaining == 0)
+                        nextHeaderField(State.EXTRA);
+                }
+                break;
+            case EXTRA:
+                if (--remaining == 0)
+                    nextHeaderField(State.EXTRA);
+                break;
+            case NAME:
+            case COMMENT:
+                if (value == 0)
+                    nextHeaderField(state);
+                break;
+            case HEADER_CRC:
+                if (++headerPosition == 2)
+                    nextHeaderField(State.HEADER_CRC);
+                break;
+            case TRAILER:
+                trailer[headerPosition++] = (byte) value;
+                if (headerPosition == TRAILER_SIZE)
+                    finishMember();
+                break;
+            default:
+                throw new IllegalStateException(state.name());
+        }
+        return off + 1;
+    }
+
+    /**
+     * Переход к следующему необязательному полю заголовка или к сжатым данным
+     * */
+    private void nextHeaderField(State current) {
+        headerPosition = 0;
+        remaining = 0;
+        if (current.ordinal() < State.EXTRA_LENGTH.ordinal() && (flags & FEXTRA) != 0)
+            state = State.EXTRA_LENGTH;
+        else if (current.ordinal() < State.NAME.ordinal() && (flags & FNAME) != 0)
+            state = State.NAME;
+        else if (current.ordinal() < State.COMMENT.ordinal() && (flags & FCOMMENT) != 0)
+            state = State.COMMENT;
+        else if (current.ordinal() < State.HEADER_CRC.ordinal() && (flags & FHCRC) != 0)
+            state = State.HEADER_CRC;
+        else
+            state = State.BODY;
+    }
+
+    private void finishMember() throws IOException {
+        long expectedCrc = littleEndianInt(0) & 0xFFFFFFFFL;
+        long expectedSize = littleEndianInt(4) & 0xFFFFFFFFL;
+        if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL))
+            throw new IOException("Corrupted gzip stream: checksum mismatch");
+        inflater.reset();
+        crc.reset();
+        state = State.HEADER;
+        headerPosition = 0;
+        memberStarted = false;
+    }
+
+    private int littleEndianInt(int pos) {
+        return (trailer[pos] & 0xFF) | (trailer[pos + 1] & 0xFF) << 8 | (trailer[pos + 2] & 0xFF) << 16 | (trailer[pos + 3] & 0xFF) << 24;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Закрывает out; если последний gzip-блок получен не полностью, сообщает об ошибке
+     * */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (memberStarted)
+                throw new IOException("Unexpected end of gzip stream");
+        } finally {
+            inflater.end();
+            out.close();
+        }
+    }
+}
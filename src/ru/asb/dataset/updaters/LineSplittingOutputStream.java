@@ -0,0 +1,83 @@
+package ru.asb.dataset.updaters;
+
+import ru.asb.dataset.parsers.ByteLine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * Поток, который делит получаемые байты на строки ('\n' или '\0') и передает каждую завершенную строку получателю.
+ * Байты дополнительно копируются в tee (например, локальный файл листинга), если он задан.
+ * Передаваемая строка переиспользуется, получатель не должен ее сохранять.
+ * */
+public class LineSplittingOutputStream extends OutputStream {
+    private final Consumer<CharSequence> rowConsumer;
+    private final OutputStream tee;
+    private final ByteLine line = new ByteLine();
+    private byte[] lineBytes = new byte[1024];
+    private int length = 0;
+
+    public LineSplittingOutputStream(Consumer<CharSequence> rowConsumer, OutputStream tee) {
+        this.rowConsumer = rowConsumer;
+        this.tee = tee;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (tee != null)
+            tee.write(b, off, len);
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n' || b[i] == 0) {
+                append(b, start, i - start);
+                emitLine();
+                start = i + 1;
+            }
+        }
+        append(b, start, end - start);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (tee != null)
+            tee.flush();
+    }
+
+    /**
+     * Передает последнюю незавершенную строку и закрывает tee
+     * */
+    @Override
+    public synchronized void close() throws IOException {
+        if (length > 0)
+            emitLine();
+        if (tee != null)
+            tee.close();
+    }
+
+    private void append(byte[] b, int off, int len) {
+        if (len == 0)
+            return;
+        if (length + len > lineBytes.length) {
+            byte[] grown = new byte[Math.max(length + len, lineBytes.length * 2)];
+            System.arraycopy(lineBytes, 0, grown, 0, length);
+            lineBytes = grown;
+        }
+        System.arraycopy(b, off, lineBytes, length, len);
+        length += len;
+    }
+
+    private void emitLine() {
+        int lineLength = length;
+        if (lineLength > 0 && lineBytes[lineLength - 1] == '\r')
+            lineLength--;
+        rowConsumer.accept(line.set(lineBytes, 0, lineLength));
+        length = 0;
+    }
+}
@@ -1,37 +1,103 @@
 package ru.asb.dataset.updaters;
 
 import ru.asb.Main;
+import ru.asb.ssh.SshCommandExecutor;
+import ru.asb.ssh.SshSessionPool;
 import ru.asb.ssh.SshWorker;
 
+import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 public class ServerUpdater extends Updater {
     private final SshWorker sshWorker;
+    private SshSessionPool sessionPool = null;
+    private boolean deltaListings = false;
+    private boolean compressedTransfer = false;
+
     public ServerUpdater(SshWorker sshWorker, int dsFilesUpdateDelay) {
         super(dsFilesUpdateDelay);
         this.sshWorker = sshWorker;
     }
 
+    /**
+     * Выполнять команды листинга в сессиях пула, а не в одной сессии sshWorker
+     * */
+    public void setSessionPool(SshSessionPool sessionPool) {
+        this.sessionPool = sessionPool;
+    }
+
+    /**
+     * Обновлять листинги по изменениям с прошлого сканирования ({@link DeltaListing}), а не полным сканированием
+     * */
+    public void setDeltaListings(boolean deltaListings) {
+        this.deltaListings = deltaListings;
+    }
+
+    /**
+     * Сжимать вывод команд на сервере (ssh.command.compress) и распаковывать его по мере получения
+     * */
+    public void setCompressedTransfer(boolean compressedTransfer) {
+        this.compressedTransfer = compressedTransfer;
+    }
+
+    /**
+     * Команда для выполнения на сервере: при сжатии вывод передается через ssh.command.compress
+     * */
+    static String remoteCommand(String command, boolean compressedTransfer) {
+        if (!compressedTransfer)
+            return command;
+        return "(" + command + ") | " + Main.getSystemProperties().getProperty("ssh.command.compress", "gzip -c -1").trim();
+    }
+
+    /**
+     * Поток для вывода команды: при сжатии данные распаковываются перед записью в resultOutputStream
+     * */
+    static OutputStream localOutput(OutputStream resultOutputStream, boolean compressedTransfer) {
+        return compressedTransfer ? new GzipInflatingOutputStream(resultOutputStream) : resultOutputStream;
+    }
+
     @Override
     public void update(String toLocalDir, String... fromServerDirs) throws InterruptedException, IOException {
+        fetch(toLocalDir, null, fromServerDirs);
+    }
+
+    /**
+     * Строки листинга передаются получателю во время выполнения find на сервере,
+     * одновременно листинг сохраняется во временный файл. Получатель подтверждается, а файл заменяет прежний листинг
+     * только после успешного завершения команды; иначе строки отбрасываются и остается прежний листинг.
+     * */
+    @Override
+    public Collection<Path> update(String toLocalDir, Supplier<StagedListing> listings, String... fromServerDirs) throws InterruptedException, IOException {
+        return fetch(toLocalDir, listings, fromServerDirs);
+    }
+
+    /**
+     * Получить листинги с сервера
+     * @param listings получатели строк листингов, null - только запись в файл;
+     * @return локальные файлы, полученные полным сканированием (их строки переданы получателям).
+     * */
+    private Collection<Path> fetch(String toLocalDir, Supplier<StagedListing> listings, String... fromServerDirs) throws InterruptedException, IOException {
         Path dsLocalDir = Paths.get(toLocalDir);
         List<String> dsServerDirsList = getDsServerDirsToUpdate(dsLocalDir, fromServerDirs);
+        Set<Path> fetchedFiles = Collections.synchronizedSet(new HashSet<>());
         if (dsServerDirsList.size() > 0) {
             if (!sshWorker.sessionIsOpen()) sshWorker.openSession();
+            SshCommandExecutor commandExecutor = sessionPool != null ? sessionPool : sshWorker;
             ExecutorService getDatasetExecutor = Executors.newFixedThreadPool(4, new ThreadFactory() {
                 int count = 1;
                 @Override
@@ -40,14 +106,30 @@ public class ServerUpdater extends Updater {
                 }
             });
             for (String dirName : dsServerDirsList) {
-                String command = String.format(Main.getSystemProperties().getProperty("ssh.command.template"), dirName);
-                Path dsFile = dsLocalDir.resolve(dirName.substring(1, dirName.length() - 1) + ".txt");
+                String command = remoteCommand(String.format(Main.getSystemProperties().getProperty("ssh.command.template"), dirName), compressedTransfer);
+                Path dsFile = getDsFile(dsLocalDir, dirName);
                 getDatasetExecutor.submit(() -> {
                     try {
                         if (Files.notExists(dsFile.getParent())) Files.createDirectories(dsFile.getParent());
-                        FileOutputStream resultOutputStream = new FileOutputStream(dsFile.toFile());
-                        sshWorker.execute(command, resultOutputStream);
-                        resultOutputStream.close();
+                        if (deltaListings && new DeltaListing(commandExecutor, dirName, dsFile, compressedTransfer).update())
+                            return;
+                        long scanStart = System.currentTimeMillis();
+                        StagedListing listing = listings != null ? listings.get() : null;
+                        Path tempFile = dsFile.resolveSibling(dsFile.getFileName().toString() + ".tmp");
+                        try {
+                            try (OutputStream resultOutputStream = resultOutput(tempFile, listing)) {
+                                commandExecutor.execute(command, resultOutputStream);
+                            }
+                            Files.move(tempFile, dsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                        } finally {
+                            Files.deleteIfExists(tempFile);
+                        }
+                        if (listing != null) {
+                            listing.commit();
+                            fetchedFiles.add(dsFile);
+                        }
+                        if (deltaListings)
+                            DeltaListing.saveScanTime(dsFile, scanStart);
                     } catch (Exception e) {
                         log.error("Error executing command: {} | {} | {}", command, e, Arrays.toString(e.getStackTrace()));
                     }
@@ -59,6 +141,17 @@ public class ServerUpdater extends Updater {
             }
             log.info("Datasets {} updated", Arrays.toString(fromServerDirs));
         }
+        return fetchedFiles;
+    }
+
+    /**
+     * Поток записи листинга в локальный файл; при наличии получателя строки передаются ему по мере загрузки
+     * */
+    private OutputStream resultOutput(Path dsFile, StagedListing listing) throws IOException {
+        OutputStream resultOutputStream = new FileOutputStream(dsFile.toFile());
+        if (listing != null)
+            resultOutputStream = new LineSplittingOutputStream(listing, new BufferedOutputStream(resultOutputStream));
+        return localOutput(resultOutputStream, compressedTransfer);
     }
 
     /**
@@ -75,7 +168,7 @@ public class ServerUpdater extends Updater {
         }
         List<String> dsServerDirsUpdateList = new ArrayList<>();
         for (String dirName : dsServerDirs) {
-            Path dsFile = dsLocalDir.resolve(dirName.substring(1, dirName.length() - 1) + ".txt");
+            Path dsFile = getDsFile(dsLocalDir, dirName);
             if (Files.exists(dsFile)) {
                 Instant expirationTime = Files.getLastModifiedTime(dsFile).toInstant().plusSeconds(dsFilesUpdateDelay);
                 if (Instant.now().compareTo(expirationTime) >= 0) {
@@ -0,0 +1,15 @@
+package ru.asb.dataset.updaters;
+
+import java.util.function.Consumer;
+
+/**
+ * Получатель строк одного листинга при потоковом обновлении.
+ * Строки принимаются во время загрузки, но передаются дальше только после {@link #commit()};
+ * если загрузка прервалась, принятые строки отбрасываются вместе с получателем.
+ * */
+public interface StagedListing extends Consumer<CharSequence> {
+    /**
+     * Листинг загружен полностью: принятые строки передаются дальше
+     * */
+    void commit();
+}
@@ -4,6 +4,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.Supplier;
 
 public abstract class Updater {
     protected int dsFilesUpdateDelay;
@@ -14,4 +18,22 @@ public abstract class Updater {
     }
 
     public abstract void update(String toDir, String... fromDirs)  throws InterruptedException, IOException;
+
+    /**
+     * Обновление с передачей строк листинга получателю по мере их поступления.
+     * По умолчанию потоковая передача не поддерживается: файлы только обновляются.
+     * @param listings - новый получатель строк для каждого загружаемого листинга.
+     * @return локальные файлы, строки которых уже переданы получателям (получатели подтверждены).
+     * */
+    public Collection<Path> update(String toDir, Supplier<StagedListing> listings, String... fromDirs) throws InterruptedException, IOException {
+        update(toDir, fromDirs);
+        return Collections.emptySet();
+    }
+
+    /**
+     * Локальный файл листинга для папки с дата-сетами
+     * */
+    public static Path getDsFile(Path localDir, String dirName) {
+        return localDir.resolve(dirName.substring(1, dirName.length() - 1) + ".txt");
+    }
 }
@@ -4,30 +4,37 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.asb.util.Util;
 
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.Charset;
 import java.nio.file.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
+/**
+ * Скрипт команд для объектов {@link Scriptable}.
+ * Скрипт не собирается в памяти целиком: строки записываются в файл по мере получения через буфер фиксированного размера,
+ * команды для выполнения создаются при обходе {@link #getCommands()}.
+ * */
 public class Script {
-    private final StringBuilder scriptBuilder = new StringBuilder();
-    private final Collection<Scriptable> collection = new ArrayList<>();
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final String GZIP_EXTENSION = ".gz";
+    private final Collection<? extends Scriptable> collection;
     private boolean inline = false;
+    private boolean gzip = false;
     private String prefix = null;
     private String postfix = null;
     private final static Logger log = LogManager.getLogger(Script.class);
 
     public Script(Scriptable scriptable) {
-        collection.add(scriptable);
+        this.collection = Collections.singletonList(scriptable);
     }
 
     public Script(Collection<? extends Scriptable> collection) {
-        this.collection.addAll(collection);
+        this.collection = collection;
     }
 
     public Script(Collection<? extends Scriptable> collection, String prefix, String postfix) {
-        this.collection.addAll(collection);
+        this.collection = collection;
         this.prefix = prefix;
         this.postfix = postfix;
     }
@@ -41,45 +48,212 @@ public class Script {
         return this;
     }
 
-    public List<String> getCommands() {
-        List<String> commands = new ArrayList<>();
-        for (Scriptable scriptable : collection) {
-            StringBuilder commandsBuilder = new StringBuilder();
-            for (String scriptRow : scriptable.getScriptRows(prefix, postfix)) {
-                commandsBuilder.append(scriptRow).append(inline?" ":"\n");
+    /**
+     * Сжимать файл скрипта в gzip (к имени файла добавляется .gz)
+     * */
+    public Script gzip(boolean gzip) {
+        this.gzip = gzip;
+        return this;
+    }
+
+    /**
+     * Команды по одной на объект; команда создается при обходе, список всех команд не строится
+     * */
+    public Collection<String> getCommands() {
+        return new AbstractCollection<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<? extends Scriptable> scriptables = collection.iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return scriptables.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return getCommand(scriptables.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return collection.size();
             }
-            commands.add(commandsBuilder.toString());
+        };
+    }
+
+    /**
+     * Префикс команды - удаление файлов (rm)
+     * */
+    public boolean isRemove() {
+        return prefix != null && (prefix.trim().equals("rm") || prefix.trim().startsWith("rm "));
+    }
+
+    /**
+     * Команды, объединенные в пакеты по путям объектов (см. {@link ScriptBatch}); пакеты создаются при обходе.
+     * Пакеты создаются только для удаления ({@link #isRemove()}): после пакета неуспешными считаются объекты,
+     * пути которых остались на сервере. Для других команд каждый объект выполняется отдельной командой.
+     * @param maxBytes - наибольшая длина команды пакета в байтах.
+     * */
+    public Iterable<ScriptBatch> getBatches(int maxBytes) {
+        boolean batched = isRemove();
+        return () -> new Iterator<ScriptBatch>() {
+            private final Iterator<? extends Scriptable> scriptables = collection.iterator();
+            private Scriptable pending = null;
+            private Collection<String> pendingPaths = null;
+
+            @Override
+            public boolean hasNext() {
+                return pending != null || scriptables.hasNext();
+            }
+
+            @Override
+            public ScriptBatch next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                ScriptBatch batch = new ScriptBatch(prefix, postfix);
+                while (hasNext()) {
+                    if (pending == null) {
+                        pending = scriptables.next();
+                        pendingPaths = pending.getScriptPaths();
+                    }
+                    if (!batched || pendingPaths.isEmpty()) {
+                        if (!batch.isEmpty())
+                            return batch;
+                        batch = new ScriptBatch(pending, getCommand(pending));
+                        pending = null;
+                        return batch;
+                    }
+                    if (!batch.add(pending, pendingPaths, maxBytes))
+                        return batch;
+                    pending = null;
+                }
+                return batch;
+            }
+        };
+    }
+
+    /**
+     * Команда объекта (строки скрипта объекта)
+     * */
+    public String getCommand(Scriptable scriptable) {
+        StringBuilder commandsBuilder = new StringBuilder();
+        for (String scriptRow : scriptable.getScriptRows(prefix, postfix)) {
+            commandsBuilder.append(scriptRow).append(inline?" ":"\n");
         }
-        return commands;
+        return commandsBuilder.toString();
     }
 
-    private void generateBash(){
+    /**
+     * Записывает скрипт в writer построчно
+     * */
+    public void write(Writer writer) throws IOException {
         if (!inline) {
-            scriptBuilder.insert(0, "#!/bin/bash\n");
+            writer.write("#!/bin/bash\n");
         }
         for (Scriptable scriptable : collection) {
             if (!inline && collection.size() > 1) {
-                scriptBuilder.append("#--\n");
+                writer.write("#--\n");
             }
             for (String scriptRow : scriptable.getScriptRows(prefix, postfix)) {
-                scriptBuilder.append(scriptRow).append(inline?" ":"\n");
+                writer.write(scriptRow);
+                writer.write(inline?" ":"\n");
             }
         }
     }
 
+    /**
+     * Команда для путей, переданных аргументами оболочки: prefix "$@" postfix (см. {@link ScriptBatch}, ManifestExecutor)
+     * */
+    public String getArgumentsCommand() {
+        return ScriptBatch.argumentsCommand(prefix, postfix);
+    }
+
+    /**
+     * Записывает манифест: пути объектов, разделенные символом NUL (для xargs -0)
+     * @return количество путей.
+     * */
+    public long writeManifest(Path manifestFile) throws IOException {
+        long count = 0;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(manifestFile), Charset.defaultCharset()), WRITE_BUFFER_SIZE)) {
+            for (Scriptable scriptable : collection) {
+                for (String path : scriptable.getScriptPaths()) {
+                    writer.write(path);
+                    writer.write('\0');
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Команды объектов, которым принадлежит хотя бы один из путей
+     * */
+    public List<String> getCommands(Set<String> paths) {
+        List<String> commands = new ArrayList<>();
+        if (paths.isEmpty())
+            return commands;
+        for (Scriptable scriptable : collection) {
+            for (String path : scriptable.getScriptPaths()) {
+                if (paths.contains(path)) {
+                    commands.add(getCommand(scriptable));
+                    break;
+                }
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Команды объектов, у которых хотя бы один путь не вошел в обработанные части манифеста.
+     * Часть задается первым путем и количеством путей подряд в порядке {@link #writeManifest(Path)}.
+     * */
+    public List<String> getCommandsOutside(Map<String, Long> chunks) {
+        List<String> commands = new ArrayList<>();
+        long remaining = 0;
+        for (Scriptable scriptable : collection) {
+            boolean outside = false;
+            for (String path : scriptable.getScriptPaths()) {
+                if (remaining == 0) {
+                    Long chunkSize = chunks.get(path);
+                    if (chunkSize != null)
+                        remaining = chunkSize;
+                }
+                if (remaining > 0)
+                    remaining--;
+                else
+                    outside = true;
+            }
+            if (outside)
+                commands.add(getCommand(scriptable));
+        }
+        return commands;
+    }
+
     public Path writeBash(Path scriptFile) {
-        if(!scriptFile.getFileName().toString().toLowerCase().endsWith(".sh")) {
-            scriptFile.resolve(".sh");
+        String fileName = scriptFile.getFileName().toString();
+        if (!fileName.toLowerCase().endsWith(".sh") && !fileName.toLowerCase().endsWith(".sh" + GZIP_EXTENSION)) {
+            fileName = fileName + ".sh";
         }
+        if (gzip && !fileName.toLowerCase().endsWith(GZIP_EXTENSION)) {
+            fileName = fileName + GZIP_EXTENSION;
+        }
+        scriptFile = scriptFile.resolveSibling(fileName);
         try {
             log.info("Write script {}", scriptFile);
-            generateBash();
-            scriptBuilder.append("echo \"Script finished.\"\n");
             if (Files.notExists(scriptFile.getParent())) Files.createDirectories(scriptFile.getParent());
-            Files.write(scriptFile, scriptBuilder.toString().getBytes(), StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+            OutputStream outputStream = Files.newOutputStream(scriptFile, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.CREATE);
+            if (gzip)
+                outputStream = new GZIPOutputStream(outputStream, WRITE_BUFFER_SIZE);
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, Charset.defaultCharset()), WRITE_BUFFER_SIZE)) {
+                write(writer);
+                writer.write("echo \"Script finished.\"\n");
+            }
         }  catch (FileSystemException e) {
-            scriptFile = Util.getAnotherName(scriptFile);
-            writeBash(scriptFile);
+            scriptFile = writeBash(Util.getAnotherName(scriptFile));
         } catch (IOException ioe) {
             log.error("Error writing script {} | {}", scriptFile, ioe);
         }
@@ -95,7 +269,12 @@ public class Script {
     }
 
     public String toString() {
-        generateBash();
-        return scriptBuilder.toString();
+        StringWriter writer = new StringWriter();
+        try {
+            write(writer);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+        return writer.toString();
     }
 }
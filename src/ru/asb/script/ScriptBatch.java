@@ -0,0 +1,108 @@
+package ru.asb.script;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Пакет объектов скрипта, пути которых обрабатываются одним вызовом команды:
+ * <pre>
+ * set -- 'path1' 'path2' ...; rm -f "$@"; for f; do if [ -e "$f" ] || [ -L "$f" ]; then echo "$f"; fi; done; exit 0
+ * </pre>
+ * После команды выводятся пути, которые остались на сервере; по ним определяются объекты, для которых команда не выполнена.
+ * Длина команды ограничена бюджетом в байтах: вся команда передается удаленной оболочке одним аргументом
+ * (в Linux не более 128 Кб на аргумент, ARG_MAX на все аргументы).
+ * */
+public class ScriptBatch {
+    private static final String PATHS_CHECK = "; for f; do if [ -e \"$f\" ] || [ -L \"$f\" ]; then echo \"$f\"; fi; done; exit 0";
+
+    private final List<Scriptable> scriptables = new ArrayList<>();
+    private final Map<String, Scriptable> pathOwners = new HashMap<>();
+    private final StringBuilder arguments = new StringBuilder();
+    private final String argumentsCommand;
+    private String command = null;
+    private int bytes;
+
+    ScriptBatch(String prefix, String postfix) {
+        this.argumentsCommand = argumentsCommand(prefix, postfix);
+        this.bytes = utf8Length("set --") + utf8Length("; " + argumentsCommand + PATHS_CHECK);
+    }
+
+    static String argumentsCommand(String prefix, String postfix) {
+        return (prefix == null || prefix.trim().isEmpty() ? "" : prefix.trim() + " ")
+                + "\"$@\""
+                + (postfix == null || postfix.trim().isEmpty() ? "" : " " + postfix.trim());
+    }
+
+    /**
+     * Пакет из одной команды объекта без путей
+     * */
+    ScriptBatch(Scriptable scriptable, String command) {
+        this((String) null, null);
+        this.scriptables.add(scriptable);
+        this.command = command;
+    }
+
+    /**
+     * Добавляет объект, если его пути помещаются в бюджет; в пустой пакет объект добавляется всегда.
+     * @return false - объект не добавлен, бюджет пакета исчерпан.
+     * */
+    boolean add(Scriptable scriptable, Collection<String> paths, int maxBytes) {
+        StringBuilder quotedPaths = new StringBuilder();
+        for (String path : paths)
+            quotedPaths.append(" '").append(path.replace("'", "'\\''")).append('\'');
+        int scriptableBytes = utf8Length(quotedPaths);
+        if (!scriptables.isEmpty() && bytes + scriptableBytes > maxBytes)
+            return false;
+        scriptables.add(scriptable);
+        for (String path : paths)
+            pathOwners.put(path, scriptable);
+        arguments.append(quotedPaths);
+        bytes += scriptableBytes;
+        return true;
+    }
+
+    public String getCommand() {
+        if (command == null)
+            return "set --" + arguments + "; " + argumentsCommand + PATHS_CHECK;
+        return command;
+    }
+
+    public List<Scriptable> getScriptables() {
+        return scriptables;
+    }
+
+    /**
+     * Описание пакета для лога: количество объектов, путей и длина команды; для пакета из одной команды - сама команда
+     * */
+    public String getDescription() {
+        if (command != null)
+            return command;
+        return String.format("Batch of %d commands, %d paths, %d bytes", scriptables.size(), pathOwners.size(), bytes);
+    }
+
+    /**
+     * Объекты, пути которых остались на сервере после выполнения команды
+     * @param output - вывод команды, по пути в строке.
+     * */
+    public Set<Scriptable> getFailed(Collection<String> output) {
+        Set<Scriptable> failed = new LinkedHashSet<>();
+        for (String path : output) {
+            Scriptable owner = pathOwners.get(path);
+            if (owner != null)
+                failed.add(owner);
+        }
+        return failed;
+    }
+
+    public int size() {
+        return scriptables.size();
+    }
+
+    boolean isEmpty() {
+        return scriptables.isEmpty();
+    }
+
+    private static int utf8Length(CharSequence value) {
+        return value.toString().getBytes(StandardCharsets.UTF_8).length;
+    }
+}
@@ -1,9 +1,18 @@
 package ru.asb.script;
 
 import java.util.Collection;
+import java.util.Collections;
 
 @FunctionalInterface
 public interface Scriptable {
  //   String getScriptName();
     Collection<String> getScriptRows(String prefix, String postfix);
+
+    /**
+     * Пути файлов на сервере, к которым относятся строки скрипта; по ним команды объединяются в пакеты {@link ScriptBatch}.
+     * Объект без путей выполняется отдельной командой.
+     * */
+    default Collection<String> getScriptPaths() {
+        return Collections.emptyList();
+    }
 }
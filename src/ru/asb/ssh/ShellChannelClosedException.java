@@ -2,11 +2,18 @@ package ru.asb.ssh;
 
 import java.io.IOException;
 
+/**
+ * Канал оболочки закрыт. {@link #isCommandSent()} - команда могла быть выполнена до закрытия канала.
+ * */
 public class ShellChannelClosedException extends IOException {
-    public ShellChannelClosedException() {
-    }
+    private final boolean commandSent;
 
-    public ShellChannelClosedException(String message) {
+    public ShellChannelClosedException(String message, boolean commandSent) {
         super(message);
+        this.commandSent = commandSent;
+    }
+
+    public boolean isCommandSent() {
+        return commandSent;
     }
 }
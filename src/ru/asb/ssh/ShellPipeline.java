@@ -0,0 +1,168 @@
+package ru.asb.ssh;
+
+import org.apache.sshd.client.channel.ChannelExec;
+import org.apache.sshd.client.session.ClientSession;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Долгоживущий канал с оболочкой sh: команды выполняются в одном канале, без открытия канала на каждую команду.
+ * Команда записывается во входной поток оболочки в виде
+ * <pre>
+ * ( eval 'command' ) &lt;/dev/null; printf '\n%s %d\n' 'MARKER' "$?"; printf '\n%s\n' 'MARKER' &gt;&amp;2
+ * </pre>
+ * Вывод и ошибки команды заканчиваются меткой канала, после метки в выводе - код завершения.
+ * Команда выполняется в подоболочке: exit, cd или синтаксическая ошибка в команде не влияют на канал.
+ * В канале выполняется одна команда: следующая отправляется после получения результата предыдущей,
+ * поэтому {@link SshWorker} выдает каждому одновременно выполняющему команду потоку свой канал.
+ * Если канал закрылся, выполняющаяся команда завершается {@link ShellChannelClosedException}.
+ * */
+final class ShellPipeline implements Closeable {
+    private static final Charset charset = Charset.defaultCharset();
+
+    private final ChannelExec channel;
+    private final Writer input;
+    private final String marker = "#SHELL-" + UUID.randomUUID();
+    private final Object lock = new Object();
+    private volatile Result current = null;
+    private volatile boolean closed = false;
+
+    ShellPipeline(ClientSession session, long timeout) throws IOException {
+        this.channel = session.createExecChannel("sh");
+        this.channel.open().verify(timeout);
+        this.input = new BufferedWriter(new OutputStreamWriter(channel.getInvertedIn(), charset));
+        startReader(channel.getInvertedOut(), true);
+        startReader(channel.getInvertedErr(), false);
+    }
+
+    /**
+     * Результат команды: вывод, ошибки и код завершения
+     * */
+    static final class Result {
+        private final StringBuilder out = new StringBuilder();
+        private final StringBuilder err = new StringBuilder();
+        private final CountDownLatch done = new CountDownLatch(2);
+        private volatile int exitStatus = -1;
+        private volatile boolean channelClosed = false;
+
+        /**
+         * Ожидает завершения команды
+         * */
+        Result await() throws IOException {
+            try {
+                done.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Waiting for shell command interrupted");
+            }
+            if (channelClosed)
+                throw new ShellChannelClosedException("Shell channel closed before command finished", true);
+            return this;
+        }
+
+        String getOut() {
+            return out.toString();
+        }
+
+        String getErr() {
+            return err.toString();
+        }
+
+        int getExitStatus() {
+            return exitStatus;
+        }
+    }
+
+    /**
+     * Выполняет команду в оболочке и ожидает результат
+     * */
+    synchronized Result execute(String command) throws IOException {
+        Result result = new Result();
+        synchronized (lock) {
+            if (!isOpen())
+                throw new ShellChannelClosedException("Shell channel is closed", false);
+            current = result;
+        }
+        try {
+            input.write("( eval " + quote(command) + " ) </dev/null; printf '\\n%s %d\\n' " + quote(marker) + " \"$?\"; printf '\\n%s\\n' " + quote(marker) + " >&2\n");
+            input.flush();
+        } catch (IOException ioe) {
+            close();
+            throw new ShellChannelClosedException("Unable to write to shell channel: " + ioe.getMessage(), true);
+        }
+        return result.await();
+    }
+
+    boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Поток чтения вывода (out = true) или ошибок оболочки: строки до метки относятся к выполняющейся команде
+     * */
+    private void startReader(InputStream inputStream, boolean out) {
+        Thread reader = new Thread(() -> {
+            try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(inputStream, charset))) {
+                StringBuilder lines = new StringBuilder();
+                boolean firstLine = true;
+                String line;
+                while ((line = bufferedReader.readLine()) != null) {
+                    Result result = current;
+                    if (result != null && line.startsWith(marker) && (line.length() == marker.length() || line.charAt(marker.length()) == ' ')) {
+                        if (out) {
+                            result.out.append(lines);
+                            result.exitStatus = Integer.parseInt(line.substring(marker.length()).trim());
+                        } else {
+                            result.err.append(lines);
+                        }
+                        result.done.countDown();
+                        lines.setLength(0);
+                        firstLine = true;
+                    } else {
+                        if (!firstLine)
+                            lines.append('\n');
+                        lines.append(line);
+                        firstLine = false;
+                    }
+                }
+            } catch (IOException | RuntimeException ignored) {
+            } finally {
+                failCurrent();
+            }
+        }, out ? "ShellPipelineOut" : "ShellPipelineErr");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Канал закрыт: выполняющаяся команда завершается с ошибкой, новые команды не принимаются
+     * */
+    private void failCurrent() {
+        synchronized (lock) {
+            closed = true;
+            Result result = current;
+            if (result != null && result.done.getCount() > 0) {
+                result.channelClosed = true;
+                while (result.done.getCount() > 0)
+                    result.done.countDown();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            input.close();
+        } catch (IOException ignored) {
+        }
+        channel.close();
+        failCurrent();
+    }
+}
@@ -0,0 +1,28 @@
+package ru.asb.ssh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Выполнение команд на SSH сервере: одной сессией ({@link SshWorker}) или пулом сессий ({@link SshSessionPool})
+ * */
+public interface SshCommandExecutor {
+    /**
+     * @return InputStream с выводом команды.
+     * */
+    default InputStream execute(String command) throws IOException {
+        return execute(command, command);
+    }
+
+    /**
+     * @param label - описание команды для лога вместо ее текста (например, для длинных пакетных команд).
+     * @return InputStream с выводом команды.
+     * */
+    InputStream execute(String command, String label) throws IOException;
+
+    /**
+     * Вывод команды записывается в resultOutputStream по мере получения
+     * */
+    void execute(String command, OutputStream resultOutputStream) throws IOException;
+}
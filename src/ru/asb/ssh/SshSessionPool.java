@@ -0,0 +1,146 @@
+package ru.asb.ssh;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.common.SshException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Пул аутентифицированных сессий к серверу основной сессии {@link SshWorker}.
+ * Каждая сессия открывает не больше channelsPerSession каналов одновременно (ниже MaxSessions сервера),
+ * поэтому общее количество одновременных команд - sessionsCount * channelsPerSession - не ограничено одним соединением
+ * и каналы не отклоняются сервером. Команда получает сессию со свободным каналом или ждет ее.
+ * Сессии открываются при первой команде с учетными данными основной сессии и переоткрываются, если закрылись.
+ * Все сессии пула используют один SSH клиент. Основная сессия должна быть открыта заранее (в основном потоке):
+ * сессии пула открываются в рабочих потоках и не запрашивают учетные данные.
+ * */
+public class SshSessionPool implements SshCommandExecutor, Closeable {
+    private static final Logger log = LogManager.getLogger(SshSessionPool.class);
+
+    private final SshWorker source;
+    private final int channelsPerSession;
+    private final List<SshWorker> sessions = new ArrayList<>();
+    private final List<Semaphore> sessionChannels = new ArrayList<>();
+    private final Semaphore channels;
+    private SshClient client = null;
+    private int next = 0;
+
+    public SshSessionPool(SshWorker source, int sessionsCount, int channelsPerSession) {
+        if (sessionsCount <= 0 || channelsPerSession <= 0)
+            throw new IllegalArgumentException("Sessions and channels count must be positive");
+        this.source = source;
+        this.channelsPerSession = channelsPerSession;
+        for (int i = 0; i < sessionsCount; i++) {
+            sessions.add(null);
+            sessionChannels.add(new Semaphore(channelsPerSession));
+        }
+        this.channels = new Semaphore(sessionsCount * channelsPerSession, true);
+    }
+
+    @Override
+    public InputStream execute(String command, String label) throws IOException {
+        int index = lease();
+        try {
+            return session(index).execute(command, label);
+        } finally {
+            release(index);
+        }
+    }
+
+    @Override
+    public void execute(String command, OutputStream resultOutputStream) throws IOException {
+        int index = lease();
+        try {
+            session(index).execute(command, resultOutputStream);
+        } finally {
+            release(index);
+        }
+    }
+
+    /**
+     * Занимает канал сессии, начиная со следующей по кругу
+     * @return номер сессии.
+     * */
+    private int lease() throws IOException {
+        try {
+            channels.acquire();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Waiting for SSH session interrupted");
+        }
+        synchronized (this) {
+            for (int i = 0; i < sessions.size(); i++) {
+                int index = (next + i) % sessions.size();
+                if (sessionChannels.get(index).tryAcquire()) {
+                    next = (index + 1) % sessions.size();
+                    return index;
+                }
+            }
+        }
+        channels.release();
+        throw new IllegalStateException("No free channel in SSH sessions pool");
+    }
+
+    private void release(int index) {
+        sessionChannels.get(index).release();
+        channels.release();
+    }
+
+    /**
+     * Открытая сессия пула с учетными данными основной сессии
+     * */
+    private SshWorker session(int index) throws IOException {
+        SshWorker session;
+        synchronized (sessions) {
+            session = sessions.get(index);
+            if (session == null) {
+                if (!source.isConnectionSuccessful())
+                    throw new SshException("Main SSH session is not opened");
+                if (client == null)
+                    client = source.newClient();
+                session = source.newSession(client);
+                sessions.set(index, session);
+            }
+        }
+        synchronized (session) {
+            if (!session.sessionIsOpen()) {
+                session.openSession();
+                log.info("Pooled SSH session {} of {} is opened ({} channels)", index + 1, sessions.size(), channelsPerSession);
+            }
+        }
+        return session;
+    }
+
+    @Override
+    public String toString() {
+        return sessions.size() + " sessions x " + channelsPerSession + " channels";
+    }
+
+    /**
+     * Закрывает сессии пула; при следующей команде сессии откроются снова
+     * */
+    @Override
+    public void close() {
+        synchronized (sessions) {
+            for (int i = 0; i < sessions.size(); i++) {
+                SshWorker session = sessions.get(i);
+                if (session != null)
+                    session.closeSession();
+                sessions.set(i, null);
+            }
+            if (client != null) {
+                SshWorker.stopClient(client);
+                client = null;
+            }
+        }
+    }
+}
@@ -15,16 +15,19 @@ import ru.asb.util.Util;
 
 import java.io.*;
 import java.net.SocketAddress;
+import java.nio.charset.Charset;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.PublicKey;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
-public class SshWorker {
+public class SshWorker implements SshCommandExecutor {
     private static final Logger log = LogManager.getLogger(SshWorker.class);
     private static int attempts = 3;
 
@@ -34,8 +37,13 @@ public class SshWorker {
     private String login = null;
     private String password = null;
     private SshClient sshClient;
+    //Клиент пула сессий; сессия пула не запрашивает учетные данные и не останавливает общий клиент
+    private SshClient sharedClient = null;
     private ScpClient scpClient;
     private ClientSession session;
+    private boolean shellPipeline = false;
+    //Свободные каналы с оболочкой: каждый поток занимает свой канал на время команды
+    private final Deque<ShellPipeline> idleShells = new ArrayDeque<>();
     private final long timeout;
     private final Path knownHostsPath;
 
@@ -45,20 +53,52 @@ public class SshWorker {
         this.knownHostsPath = Paths.get(System.getProperty("user.home"), ".ssh", "known_hosts");
     }
 
+    /**
+     * Новая (не открытая) сессия к тому же серверу с теми же учетными данными через общий клиент пула.
+     * Сессия открывается без запроса учетных данных: при их отсутствии или ошибке входа бросается SshException.
+     * */
+    SshWorker newSession(SshClient client) {
+        SshWorker sshWorker = new SshWorker(TimeUnit.MILLISECONDS.toSeconds(timeout));
+        sshWorker.setParams(host, port, login, password);
+        sshWorker.setShellPipeline(shellPipeline);
+        sshWorker.sharedClient = client;
+        return sshWorker;
+    }
+
+    /**
+     * Запущенный SSH клиент с проверкой ключа сервера, как у основной сессии
+     * */
+    SshClient newClient() {
+        SshClient client = SshClient.setUpDefaultClient();
+        client.setServerKeyVerifier(initVerifier());
+        client.start();
+        return client;
+    }
+
+    static void stopClient(SshClient client) {
+        try {
+            client.stop();
+        } catch (Exception e) {
+            log.error("Error stopping SSH client: " + e + " | " + Arrays.toString(e.getStackTrace()));
+        }
+    }
+
     /**
      * Open session with SSH server.
      * */
     public void openSession() throws IOException {
         try {
             if (!sessionIsOpen()) {
-                if (host == null || port < 0 || login == null || password == null) {
+                if ((host == null || port < 0 || login == null || password == null) && sharedClient == null) {
                     askCredentials();
                 }
                 if (host != null && port > 0 && login != null && password != null) {
-                    sshClient = SshClient.setUpDefaultClient();
-                    sshClient.setServerKeyVerifier(initVerifier());
-                    sshClient.start();
-                    session = sshClient.connect(login, host, port).verify().getSession();
+                    SshClient client = sharedClient;
+                    if (client == null) {
+                        sshClient = newClient();
+                        client = sshClient;
+                    }
+                    session = client.connect(login, host, port).verify().getSession();
                     session.addPasswordIdentity(password);
                     session.auth().verify(timeout);
                     if (session.isOpen()) {
@@ -78,6 +118,8 @@ public class SshWorker {
             }
         } catch(SshException sshe) {
             connectionSuccessful = false;
+            if (sharedClient != null)
+                throw sshe;
             attempts--;
             log.error("Access denied");
             if (attempts > 0) {
@@ -97,6 +139,11 @@ public class SshWorker {
      * */
     public void closeSession() {
         try {
+            synchronized (this) {
+                for (ShellPipeline shell : idleShells)
+                    shell.close();
+                idleShells.clear();
+            }
             if (session != null && session.isOpen()) {
                 session.close();
                 if (session.isClosed()) {
@@ -122,11 +169,15 @@ public class SshWorker {
     /**
      * Execute command on remote SSH server;
      * @param command command to execute on the server;
+     * @param label command description written to the log instead of the command;
      * @return InputStream with command result if command complete successfully, and empty InputStream if command failed.
      * */
-    public InputStream execute(String command) throws IOException {
+    @Override
+    public InputStream execute(String command, String label) throws IOException {
+        if (shellPipeline)
+            return executeInShell(command, label);
         if (sessionIsOpen()) {
-            Thread delayedLogThread = Util.logDelayed("Executing:\t" + command, 2000);
+            Thread delayedLogThread = Util.logDelayed("Executing:\t" + label, 2000);
             ByteArrayOutputStream resultOutputStream = new ByteArrayOutputStream();
             ByteArrayOutputStream errorOutputStream = new ByteArrayOutputStream();
             ChannelExec channelExec = session.createExecChannel(command);
@@ -136,9 +187,9 @@ public class SshWorker {
             channelExec.waitFor(EnumSet.of(ClientChannelEvent.CLOSED), 0L);
             int exitStatus = channelExec.getExitStatus();
             if (exitStatus == 0) {
-                log.info("Complete:\t{} | Exit-status: {}", command, exitStatus);
+                log.info("Complete:\t{} | Exit-status: {}", label, exitStatus);
             } else {
-                log.warn("Warning:\t{} | Exit-status: {} | {}", command, exitStatus, errorOutputStream.toString().replaceAll("\n", " ").trim());
+                log.warn("Warning:\t{} | Exit-status: {} | {}", label, exitStatus, errorOutputStream.toString().replaceAll("\n", " ").trim());
             }
             if (delayedLogThread.isAlive())
                 delayedLogThread.interrupt();
@@ -152,6 +203,7 @@ public class SshWorker {
      * Execute command on remote SSH server and write the result to resultOutputStream;
      * @param command command to execute on the server;
      * */
+    @Override
     public void execute(String command, OutputStream resultOutputStream) throws IOException {
         if (sessionIsOpen()) {
             Thread delayedLogThread = Util.logDelayed("Executing:\t" + command, 2000);
@@ -174,6 +226,77 @@ public class SshWorker {
         }
     }
 
+    /**
+     * Execute command in a long-lived shell channel of the session (see {@link ShellPipeline}).
+     * The calling thread borrows an idle shell channel (or opens a new one) for the time of the command,
+     * so commands of concurrent threads run in parallel shells: one per concurrently executing thread.
+     * If the channel is closed before the command is sent, the command is sent once again in a new channel.
+     * If the channel is closed after the command is sent, the command may have been executed,
+     * so it is not resent and fails with SshException.
+     * */
+    private InputStream executeInShell(String command, String label) throws IOException {
+        Thread delayedLogThread = Util.logDelayed("Executing:\t" + label, 2000);
+        try {
+            ShellPipeline.Result result;
+            try {
+                result = executeInShell(command);
+            } catch (ShellChannelClosedException scce) {
+                if (scce.isCommandSent())
+                    throw new SshException("Shell channel closed while executing command", scce);
+                log.info("Shell channel is closed ({}). Reopening", scce.getMessage());
+                try {
+                    result = executeInShell(command);
+                } catch (ShellChannelClosedException e) {
+                    throw new SshException("Shell channel is closed", e);
+                }
+            }
+            if (result.getExitStatus() == 0) {
+                log.info("Complete:\t{} | Exit-status: {}", label, result.getExitStatus());
+            } else {
+                log.warn("Warning:\t{} | Exit-status: {} | {}", label, result.getExitStatus(), result.getErr().replaceAll("\n", " ").trim());
+            }
+            return new ByteArrayInputStream(result.getOut().getBytes(Charset.defaultCharset()));
+        } finally {
+            if (delayedLogThread.isAlive())
+                delayedLogThread.interrupt();
+        }
+    }
+
+    private ShellPipeline.Result executeInShell(String command) throws IOException {
+        ShellPipeline shell = borrowShell();
+        try {
+            return shell.execute(command);
+        } finally {
+            returnShell(shell);
+        }
+    }
+
+    private synchronized ShellPipeline borrowShell() throws IOException {
+        if (!sessionIsOpen())
+            throw new SshException("SSH session is closed");
+        ShellPipeline shell;
+        while ((shell = idleShells.poll()) != null) {
+            if (shell.isOpen())
+                return shell;
+            shell.close();
+        }
+        shell = new ShellPipeline(session, timeout);
+        log.info("Shell channel is opened");
+        return shell;
+    }
+
+    private synchronized void returnShell(ShellPipeline shell) {
+        if (shell.isOpen() && sessionIsOpen()) {
+            idleShells.push(shell);
+            return;
+        }
+        try {
+            shell.close();
+        } catch (IOException ioe) {
+            log.warn("Error closing shell channel: {}", ioe.toString());
+        }
+    }
+
     /**
      * Open SCP client
      * */
@@ -204,6 +327,19 @@ public class SshWorker {
         scpClient.download(remoteFile, localDir, ScpClient.Option.Recursive, ScpClient.Option.PreserveAttributes, ScpClient.Option.TargetIsDirectory);
     }
 
+    /**
+     * Выполнять команды {@link #execute(String)} через долгоживущие каналы с оболочкой, а не отдельным exec-каналом на команду.
+     * Каналов с оболочкой открывается столько, сколько потоков выполняют команды одновременно (в пуле - не больше каналов сессии).
+     * Команды с выводом в поток ({@link #execute(String, OutputStream)}, например листинги) выполняются exec-каналом.
+     * */
+    public void setShellPipeline(boolean shellPipeline) {
+        this.shellPipeline = shellPipeline;
+    }
+
+    public boolean isShellPipeline() {
+        return shellPipeline;
+    }
+
     public void setAuth(String login, String password) {
         this.login = login;
         this.password = password;
@@ -3,7 +3,7 @@ package ru.asb.util;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.asb.dataset.CsvWriteable;
-import ru.asb.dataset.Dataset;
+import ru.asb.dataset.DatasetView;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -82,9 +82,9 @@ public class Util {
         return anotherFileName;
     }
 
-    public static double getDsListSize(List<? extends Dataset> dsList, Unit unit) {
+    public static double getDsListSize(Collection<? extends DatasetView> dsList, Unit unit) {
         long commonSize = 0;
-        for (Dataset dataset : dsList) {
+        for (DatasetView dataset : dsList) {
             commonSize += dataset.size();
         }
         return size(commonSize, unit);
@@ -94,6 +94,13 @@ public class Util {
      * Запись в CSV файл
      * */
     public static <T extends CsvWriteable> Path writeCSV(Path file, String header, List<T> list) throws IOException {
+        return writeCSV(file, header, list, null);
+    }
+
+    /**
+     * Запись в CSV файл с итоговой строкой lastRow (если не null)
+     * */
+    public static <T extends CsvWriteable> Path writeCSV(Path file, String header, List<T> list, String lastRow) throws IOException {
         Path directory = file.getParent();
         if (Files.notExists(directory)) Files.createDirectories(directory);
         try {
@@ -102,10 +109,11 @@ public class Util {
             for (T elem : list) {
                 if (elem != null) csvString.append(elem.getCsvRow()).append(System.lineSeparator());
             }
+            if (lastRow != null) csvString.append(lastRow).append(System.lineSeparator());
             Files.write(file, csvString.toString().getBytes(), StandardOpenOption.CREATE);
         } catch (FileSystemException e) {
             file = Util.getAnotherName(file);
-            writeCSV(file, header, list);
+            writeCSV(file, header, list, lastRow);
         }
         log.info("File {} is saved", file.toString());
         return file;